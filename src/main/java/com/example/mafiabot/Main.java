@@ -1,16 +1,38 @@
 package com.example.mafiabot;
 
+import com.example.mafiabot.llm.AdaptiveLimiter;
+import com.example.mafiabot.llm.CachingLLMService;
+import com.example.mafiabot.llm.CircuitBreaker;
+import com.example.mafiabot.llm.FallbackLLMService;
+import com.example.mafiabot.llm.HedgePolicy;
+import com.example.mafiabot.llm.LLMFanOut;
 import com.example.mafiabot.llm.LLMService;
+import com.example.mafiabot.llm.LocalLLMStub;
 import com.example.mafiabot.llm.OpenAiLLMService;
+import com.example.mafiabot.llm.TokenUsage;
 import com.example.mafiabot.db.*;
 import com.example.mafiabot.game.AIPlayer;
+import com.example.mafiabot.game.BasicBotStrategy;
+import com.example.mafiabot.game.DbSessionStore;
+import com.example.mafiabot.game.FileSessionStore;
 import com.example.mafiabot.game.GameController;
+import com.example.mafiabot.game.GameEventLog;
+import com.example.mafiabot.game.HashedWheelTimer;
+import com.example.mafiabot.game.PhaseTimers;
+import com.example.mafiabot.game.SessionRegistry;
+import com.example.mafiabot.game.SessionStore;
 
 
 import com.example.mafiabot.telegram.MafiaTelegramBot;
+import com.example.mafiabot.telegram.WebhookServer;
+import okhttp3.OkHttpClient;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
 public class Main {
     public static void main(String[] args) throws Exception {
         String botUsername = "WhoWannaBeMafiabot";
@@ -22,22 +44,130 @@ public class Main {
         GamePlayerDao gamePlayerDao = new GamePlayerDao(db);
         MoveDao moveDao = new MoveDao(db);
         TrainingDataDao trainingDataDao = new TrainingDataDao(db);
+        GameCheckpointDao checkpointDao = new GameCheckpointDao(db);
 
 // LLM (пока локальная заглушка)
         String openAiApiKey = System.getenv("OPENAI_API_KEY");
-        LLMService llmService = new OpenAiLLMService(openAiApiKey, "gpt-4o-mini");
+// HTTP к OpenAI: до LLM_MAX_CONNECTIONS соединений и одновременных запросов,
+// простаивающее соединение живёт LLM_KEEP_ALIVE_SECONDS, HTTP/2 по LLM_HTTP2,
+// таймауты соединения и всего вызова — LLM_CONNECT_TIMEOUT_MS и LLM_CALL_TIMEOUT_MS.
+        int llmMaxConnections = Integer.parseInt(System.getenv().getOrDefault("LLM_MAX_CONNECTIONS", "16"));
+        OkHttpClient llmHttp = OpenAiLLMService.httpClient(
+                llmMaxConnections,
+                Long.parseLong(System.getenv().getOrDefault("LLM_KEEP_ALIVE_SECONDS", "300")),
+                Boolean.parseBoolean(System.getenv().getOrDefault("LLM_HTTP2", "true")),
+                Long.parseLong(System.getenv().getOrDefault("LLM_CONNECT_TIMEOUT_MS", "3000")),
+                Long.parseLong(System.getenv().getOrDefault("LLM_CALL_TIMEOUT_MS", "15000")));
+
+// Предохранитель: из последних 20 вызовов половина ошибок (429, 5xx, сеть) или 80%
+// ответов дольше LLM_SLOW_CALL_MS — 30 с не ходим в OpenAI, затем 3 пробных запроса.
+// Предел одновременных запросов подстраивается (AIMD) от 1 до LLM_MAX_CONNECTIONS.
+        long llmSlowCallMs = Long.parseLong(System.getenv().getOrDefault("LLM_SLOW_CALL_MS", "8000"));
+        CircuitBreaker llmBreaker = new CircuitBreaker(20, 10, 0.5,
+                llmSlowCallMs, 0.8, 30_000, TimeUnit.MILLISECONDS, 3);
+        AdaptiveLimiter llmLimiter = new AdaptiveLimiter(Math.min(8, llmMaxConnections), 1, llmMaxConnections,
+                llmSlowCallMs, TimeUnit.MILLISECONDS);
+
+// Хеджирование: одиночный запрос (пачки не дублируются), идущий дольше перцентиля
+// LLM_HEDGE_PERCENTILE недавних ответов (0 — выключено), дублируется, берётся первый
+// ответ; задержка хеджа от 200 мс до LLM_SLOW_CALL_MS, пока замеров мало — 2 с.
+        double llmHedgePercentile = Double.parseDouble(System.getenv().getOrDefault("LLM_HEDGE_PERCENTILE", "0.9"));
+        HedgePolicy llmHedge = llmHedgePercentile > 0
+                ? new HedgePolicy(llmHedgePercentile, 2000, 200, llmSlowCallMs, TimeUnit.MILLISECONDS)
+                : null;
+
+// Учёт токенов: за сутки (UTC) не больше LLM_DAILY_TOKENS на всех и LLM_CHAT_DAILY_TOKENS
+// на чат (0 — без ограничения), дальше — только кеш и локальная заглушка.
+// Дневные итоги по чатам и местам вызова пишутся в llm_usage_daily раз в минуту.
+        TokenUsage tokenUsage = new TokenUsage(new LlmUsageDao(db),
+                Long.parseLong(System.getenv().getOrDefault("LLM_DAILY_TOKENS", "2000000")),
+                Long.parseLong(System.getenv().getOrDefault("LLM_CHAT_DAILY_TOKENS", "50000")),
+                60, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(tokenUsage::close));
+
+// OPENAI_BASE_URL — другой OpenAI-совместимый адрес, например локальный
+// MockOpenAiServer (http://localhost:8089/v1) для нагрузочных тестов.
+        String openAiBaseUrl = System.getenv().getOrDefault("OPENAI_BASE_URL", OpenAiLLMService.DEFAULT_BASE_URL);
+        LLMService llmService = new OpenAiLLMService(openAiApiKey, "gpt-4o-mini", llmHttp,
+                llmBreaker, llmLimiter, llmHedge, tokenUsage, openAiBaseUrl);
+
+// Кеш ответов LLM: до LLM_CACHE_SIZE запросов (0 — без кеша), каждый живёт
+// LLM_CACHE_TTL_SECONDS, на запрос копится до LLM_CACHE_VARIANTS разных ответов.
+        int llmCacheSize = Integer.parseInt(System.getenv().getOrDefault("LLM_CACHE_SIZE", "1000"));
+        if (llmCacheSize > 0) {
+            long llmCacheTtl = Long.parseLong(System.getenv().getOrDefault("LLM_CACHE_TTL_SECONDS", "600"));
+            int llmCacheVariants = Integer.parseInt(System.getenv().getOrDefault("LLM_CACHE_VARIANTS", "3"));
+            llmService = new CachingLLMService(llmService, llmCacheSize, llmCacheTtl, TimeUnit.SECONDS, llmCacheVariants);
+        }
+
+// Объяснения голосов ботов за день: по LLM_BATCH_SIZE в одном запросе, запросы
+// параллельно (не больше LLM_PARALLELISM одновременно) с общим дедлайном
+// LLM_DEADLINE_MS; опоздавшие — локальная заглушка.
+        int llmParallelism = Integer.parseInt(System.getenv().getOrDefault("LLM_PARALLELISM", "8"));
+        long llmDeadlineMs = Long.parseLong(System.getenv().getOrDefault("LLM_DEADLINE_MS", "5000"));
+        int llmBatchSize = Integer.parseInt(System.getenv().getOrDefault("LLM_BATCH_SIZE", "8"));
+        LLMFanOut llmFanOut = new LLMFanOut(llmService, new LocalLLMStub(),
+                llmParallelism, llmDeadlineMs, TimeUnit.MILLISECONDS, llmBatchSize);
 
-// ИИ получает доступ к БД и LLM
-        AIPlayer aiPlayer = new AIPlayer(moveDao, trainingDataDao, llmService);
+// ИИ получает доступ к БД и LLM; одиночное объяснение ждём не дольше LLM_BUDGET_MS
+// (0 — без ограничения), опоздавший ответ всё равно попадёт в кеш. Отказы OpenAI
+// заменяются заглушкой над кешем, чтобы она не закешировалась.
+        long llmBudgetMs = Long.parseLong(System.getenv().getOrDefault("LLM_BUDGET_MS", "3000"));
+        AIPlayer aiPlayer = new AIPlayer(moveDao, trainingDataDao, new FallbackLLMService(llmService),
+                new BasicBotStrategy(), llmFanOut, llmBudgetMs);
 
-        GameController controller =
-                new GameController(userDao, gameDao, gamePlayerDao, moveDao, trainingDataDao, aiPlayer);
+// Таймеры фаз: ночь и день заканчиваются сами (0 — только по командам).
+// Все дедлайны — в одном колесе с шагом 100 мс.
+        long nightSeconds = Long.parseLong(System.getenv().getOrDefault("NIGHT_SECONDS", "120"));
+        long daySeconds = Long.parseLong(System.getenv().getOrDefault("DAY_SECONDS", "300"));
+        HashedWheelTimer wheelTimer = new HashedWheelTimer(100, TimeUnit.MILLISECONDS, 512);
+        PhaseTimers phaseTimers = new PhaseTimers(wheelTimer, nightSeconds, daySeconds, TimeUnit.SECONDS);
+
+// Сессии: после каждого хода пишется checkpoint (по умолчанию в БД), после рестарта
+// игра чата поднимается из него при первой команде. Простаивающие больше 30 минут
+// выгружаются из памяти, в памяти — не больше 10 000.
+        SessionStore sessionStore = "file".equalsIgnoreCase(System.getenv("SESSION_STORE"))
+                ? new FileSessionStore(Path.of("sessions"))
+                : new DbSessionStore(checkpointDao);
+        SessionRegistry sessions = new SessionRegistry(sessionStore, 10_000, 30, TimeUnit.MINUTES, phaseTimers);
+
+// Журнал событий: events/<gameId>.log, fsync пачкой раз в 50 мс
+        GameEventLog eventLog = new GameEventLog(Path.of("events"), 50, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(eventLog::close));
+
+        GameController controller = new GameController(
+                userDao, gameDao, gamePlayerDao, moveDao, trainingDataDao, aiPlayer, sessions, eventLog, phaseTimers);
 
 
-        TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
         MafiaTelegramBot bot = new MafiaTelegramBot(botUsername, botToken, controller);
-        botsApi.registerBot(bot);
 
-        System.out.println("Bot started");
+// Режим получения апдейтов: polling (по умолчанию) или webhook
+        String mode = System.getenv().getOrDefault("BOT_MODE", "polling");
+        if (mode.equalsIgnoreCase("webhook")) {
+            int port = Integer.parseInt(System.getenv().getOrDefault("WEBHOOK_PORT", "8080"));
+            String path = System.getenv().getOrDefault("WEBHOOK_PATH", "/telegram/webhook");
+            String secret = System.getenv("WEBHOOK_SECRET");
+
+            WebhookServer webhook = new WebhookServer(port, path, secret, bot::onUpdateReceived);
+            webhook.start();
+
+            // публичный адрес нужен только для регистрации в Telegram;
+            // без него сервер можно гонять локально, присылая апдейты curl-ом
+            String publicUrl = System.getenv("WEBHOOK_URL");
+            if (publicUrl != null && !publicUrl.isBlank()) {
+                SetWebhook setWebhook = new SetWebhook(publicUrl);
+                if (secret != null && !secret.isBlank()) {
+                    setWebhook.setSecretToken(secret);
+                }
+                bot.execute(setWebhook);
+            }
+
+            System.out.println("Bot started (webhook on port " + port + ", path " + path + ")");
+        } else {
+            TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
+            botsApi.registerBot(bot);
+
+            System.out.println("Bot started");
+        }
     }
 }
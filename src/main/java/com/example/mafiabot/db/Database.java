@@ -67,6 +67,29 @@ public class Database {
                             outcome TEXT
                         );
                         """);
+
+                // 6. game_checkpoints — последнее состояние игры в каждом чате (для тёплого рестарта)
+                s.execute("""
+                        CREATE TABLE IF NOT EXISTS game_checkpoints (
+                            chat_id INTEGER PRIMARY KEY,
+                            game_id INTEGER NOT NULL,
+                            state BLOB NOT NULL,
+                            updated_at TEXT
+                        );
+                        """);
+
+                // 7. llm_usage_daily — токены LLM за день по чатам и местам вызова (агрегаты, не по строке на вызов)
+                s.execute("""
+                        CREATE TABLE IF NOT EXISTS llm_usage_daily (
+                            day TEXT NOT NULL,
+                            chat_id INTEGER NOT NULL,
+                            site TEXT NOT NULL,
+                            calls INTEGER NOT NULL DEFAULT 0,
+                            prompt_tokens INTEGER NOT NULL DEFAULT 0,
+                            completion_tokens INTEGER NOT NULL DEFAULT 0,
+                            PRIMARY KEY (day, chat_id, site)
+                        );
+                        """);
             }
         }
     }
@@ -0,0 +1,51 @@
+package com.example.mafiabot.db;
+
+import java.sql.*;
+import java.time.Instant;
+
+/**
+ * Последний checkpoint игры для каждого чата (бинарное состояние сессии).
+ */
+public class GameCheckpointDao {
+    private final Database db;
+
+    public GameCheckpointDao(Database db) {
+        this.db = db;
+    }
+
+    /** Сохранить (перезаписать) checkpoint чата. */
+    public void save(long chatId, long gameId, byte[] state) throws SQLException {
+        try (Connection c = db.getConnection();
+             PreparedStatement ps = c.prepareStatement(
+                     "INSERT INTO game_checkpoints(chat_id, game_id, state, updated_at) VALUES(?,?,?,?) " +
+                             "ON CONFLICT(chat_id) DO UPDATE SET " +
+                             "game_id = excluded.game_id, state = excluded.state, updated_at = excluded.updated_at")) {
+            ps.setLong(1, chatId);
+            ps.setLong(2, gameId);
+            ps.setBytes(3, state);
+            ps.setString(4, Instant.now().toString());
+            ps.executeUpdate();
+        }
+    }
+
+    /** Состояние из последнего checkpoint или null, если его нет. */
+    public byte[] load(long chatId) throws SQLException {
+        try (Connection c = db.getConnection();
+             PreparedStatement ps = c.prepareStatement(
+                     "SELECT state FROM game_checkpoints WHERE chat_id = ?")) {
+            ps.setLong(1, chatId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getBytes(1) : null;
+            }
+        }
+    }
+
+    public void delete(long chatId) throws SQLException {
+        try (Connection c = db.getConnection();
+             PreparedStatement ps = c.prepareStatement(
+                     "DELETE FROM game_checkpoints WHERE chat_id = ?")) {
+            ps.setLong(1, chatId);
+            ps.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.mafiabot.db;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Дневные агрегаты расхода токенов LLM: день (UTC, yyyy-MM-dd), чат, место вызова.
+ */
+public class LlmUsageDao {
+    private final Database db;
+
+    public LlmUsageDao(Database db) {
+        this.db = db;
+    }
+
+    /** Прирост счётчиков за день для одного чата и места вызова. */
+    public static class Row {
+        public final String day;
+        public final long chatId;
+        public final String site;
+        public final long calls;
+        public final long promptTokens;
+        public final long completionTokens;
+
+        public Row(String day, long chatId, String site, long calls, long promptTokens, long completionTokens) {
+            this.day = day;
+            this.chatId = chatId;
+            this.site = site;
+            this.calls = calls;
+            this.promptTokens = promptTokens;
+            this.completionTokens = completionTokens;
+        }
+    }
+
+    /** Прибавить пачку приростов к агрегатам одной транзакцией. */
+    public void addAll(List<Row> rows) throws SQLException {
+        if (rows.isEmpty()) return;
+        try (Connection c = db.getConnection()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement ps = c.prepareStatement(
+                    "INSERT INTO llm_usage_daily(day, chat_id, site, calls, prompt_tokens, completion_tokens) " +
+                            "VALUES(?,?,?,?,?,?) " +
+                            "ON CONFLICT(day, chat_id, site) DO UPDATE SET " +
+                            "calls = calls + excluded.calls, " +
+                            "prompt_tokens = prompt_tokens + excluded.prompt_tokens, " +
+                            "completion_tokens = completion_tokens + excluded.completion_tokens")) {
+                for (Row r : rows) {
+                    ps.setString(1, r.day);
+                    ps.setLong(2, r.chatId);
+                    ps.setString(3, r.site);
+                    ps.setLong(4, r.calls);
+                    ps.setLong(5, r.promptTokens);
+                    ps.setLong(6, r.completionTokens);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /** Все агрегаты за день. */
+    public List<Row> loadDay(String day) throws SQLException {
+        List<Row> rows = new ArrayList<>();
+        try (Connection c = db.getConnection();
+             PreparedStatement ps = c.prepareStatement(
+                     "SELECT chat_id, site, calls, prompt_tokens, completion_tokens " +
+                             "FROM llm_usage_daily WHERE day = ?")) {
+            ps.setString(1, day);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(new Row(day, rs.getLong(1), rs.getString(2),
+                            rs.getLong(3), rs.getLong(4), rs.getLong(5)));
+                }
+            }
+        }
+        return rows;
+    }
+}
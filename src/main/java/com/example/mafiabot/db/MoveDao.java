@@ -1,6 +1,7 @@
 package com.example.mafiabot.db;
 
 import java.sql.*;
+import java.util.List;
 
 public class MoveDao {
     private final Database db;
@@ -26,4 +27,53 @@ public class MoveDao {
         }
         throw new SQLException("Failed to insert move");
     }
+
+    /** Один ход для пакетной вставки. */
+    public static class Move {
+        public final long gameId;
+        public final long playerId;
+        public final String moveType;
+        public final String moveData;
+
+        public Move(long gameId, long playerId, String moveType, String moveData) {
+            this.gameId = gameId;
+            this.playerId = playerId;
+            this.moveType = moveType;
+            this.moveData = moveData;
+        }
+    }
+
+    /**
+     * Вставить пачку ходов одной транзакцией (например, все ночные действия).
+     * @return id ходов в том же порядке
+     */
+    public long[] insertMoves(List<Move> moves) throws SQLException {
+        long[] ids = new long[moves.size()];
+        if (moves.isEmpty()) return ids;
+        try (Connection c = db.getConnection()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement ps = c.prepareStatement(
+                    "INSERT INTO moves(game_id, player_id, move_type, move_data) VALUES(?,?,?,?)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                // по одной строке: ключи пачки драйвер SQLite отдаёт ненадёжно
+                for (int i = 0; i < moves.size(); i++) {
+                    Move m = moves.get(i);
+                    ps.setLong(1, m.gameId);
+                    ps.setLong(2, m.playerId);
+                    ps.setString(3, m.moveType);
+                    ps.setString(4, m.moveData);
+                    ps.executeUpdate();
+                    try (ResultSet rs = ps.getGeneratedKeys()) {
+                        if (!rs.next()) throw new SQLException("Failed to insert move");
+                        ids[i] = rs.getLong(1);
+                    }
+                }
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            }
+        }
+        return ids;
+    }
 }
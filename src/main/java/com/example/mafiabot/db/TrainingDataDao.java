@@ -2,6 +2,7 @@ package com.example.mafiabot.db;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.util.List;
 
 public class TrainingDataDao {
     private final Database db;
@@ -30,6 +31,52 @@ public class TrainingDataDao {
         }
     }
 
+    /** Одна строка training_data для пакетной вставки. */
+    public static class Row {
+        public final long gameId;
+        public final long moveId;
+        public final String playerRole;
+        public final String stateSnapshot;
+        public final String actionTaken;
+        public final String outcome;
+
+        public Row(long gameId, long moveId, String playerRole,
+                   String stateSnapshot, String actionTaken, String outcome) {
+            this.gameId = gameId;
+            this.moveId = moveId;
+            this.playerRole = playerRole;
+            this.stateSnapshot = stateSnapshot;
+            this.actionTaken = actionTaken;
+            this.outcome = outcome;
+        }
+    }
+
+    /** Вставить пачку строк одной транзакцией (для симуляций — тысячи строк за раз). */
+    public void insertTrainingRows(List<Row> rows) throws Exception {
+        if (rows.isEmpty()) return;
+        try (Connection c = db.getConnection()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement ps = c.prepareStatement(
+                    "INSERT INTO training_data(game_id, move_id, player_role, state_snapshot, action_taken, outcome) " +
+                            "VALUES(?,?,?,?,?,?)")) {
+                for (Row r : rows) {
+                    ps.setLong(1, r.gameId);
+                    ps.setLong(2, r.moveId);
+                    ps.setString(3, r.playerRole);
+                    ps.setString(4, r.stateSnapshot);
+                    ps.setString(5, r.actionTaken);
+                    ps.setString(6, r.outcome);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                c.commit();
+            } catch (Exception e) {
+                c.rollback();
+                throw e;
+            }
+        }
+    }
+
     /** Обновить outcome для всех ходов одной игры (когда игра закончилась) */
     public void updateOutcomeForGame(long gameId, String outcome) throws Exception {
         try (Connection c = db.getConnection();
@@ -2,12 +2,18 @@ package com.example.mafiabot.game;
 
 import com.example.mafiabot.db.MoveDao;
 import com.example.mafiabot.db.TrainingDataDao;
+import com.example.mafiabot.llm.LLMFanOut;
 import com.example.mafiabot.llm.LLMService;
+import com.example.mafiabot.llm.LocalLLMStub;
 import com.google.gson.Gson;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * ИИ-логика:
@@ -19,6 +25,11 @@ public class AIPlayer {
     private final MoveDao moveDao;
     private final TrainingDataDao trainingDao;
     private final LLMService llmService;
+    private final BotStrategy strategy;
+    // параллельные объяснения голосов с общим дедлайном; null — по одному
+    private final LLMFanOut fanOut;
+    // сколько ждать одиночное объяснение LLM, потом — локальное; 0 — без ограничения
+    private final long llmBudgetMillis;
 
     private final Random random = new Random();
     private final Gson gson = new Gson();
@@ -26,9 +37,46 @@ public class AIPlayer {
     public AIPlayer(MoveDao moveDao,
                     TrainingDataDao trainingDao,
                     LLMService llmService) {
+        this(moveDao, trainingDao, llmService, new BasicBotStrategy());
+    }
+
+    public AIPlayer(MoveDao moveDao,
+                    TrainingDataDao trainingDao,
+                    LLMService llmService,
+                    BotStrategy strategy) {
+        this(moveDao, trainingDao, llmService, strategy, null);
+    }
+
+    public AIPlayer(MoveDao moveDao,
+                    TrainingDataDao trainingDao,
+                    LLMService llmService,
+                    BotStrategy strategy,
+                    LLMFanOut fanOut) {
+        this(moveDao, trainingDao, llmService, strategy, fanOut, 0);
+    }
+
+    public AIPlayer(MoveDao moveDao,
+                    TrainingDataDao trainingDao,
+                    LLMService llmService,
+                    BotStrategy strategy,
+                    LLMFanOut fanOut,
+                    long llmBudgetMillis) {
         this.moveDao = moveDao;
         this.trainingDao = trainingDao;
         this.llmService = llmService;
+        this.strategy = strategy;
+        this.fanOut = fanOut;
+        this.llmBudgetMillis = llmBudgetMillis;
+    }
+
+    /** Стратегия, по которой боты принимают решения. */
+    public BotStrategy getStrategy() {
+        return strategy;
+    }
+
+    /** Счётчики LLM-сервиса (кеш и т.п.) или null. */
+    public String getLlmStats() {
+        return llmService.getStats();
     }
 
     /**
@@ -55,10 +103,31 @@ public class AIPlayer {
     }
 
     /**
-     * ИИ-мафия выбирает цель убийства:
-     *  - не стреляет в себя и других мафий;
-     *  - приоритет: SHERIFF, затем остальные мирные/доктор;
-     *  - логирует ход и возвращает решение.
+     * План мафии на ночь: цель, стратегия, объяснение LLM и снимок для training_data.
+     * Ещё ничего не записано в БД — см. planMafiaKill().
+     */
+    public static class MafiaPlan {
+        public final Player target;
+        public final String strategicReason;
+        public final String explanation;
+        public final String snapshotJson;
+
+        MafiaPlan(Player target, String strategicReason, String explanation, String snapshotJson) {
+            this.target = target;
+            this.strategicReason = strategicReason;
+            this.explanation = explanation;
+            this.snapshotJson = snapshotJson;
+        }
+
+        /** Решение после записи хода с идентификатором moveId. */
+        public MafiaDecision toDecision(long moveId) {
+            return new MafiaDecision(target.getChatId(), target.getUsername(), strategicReason, explanation, moveId);
+        }
+    }
+
+    /**
+     * ИИ-мафия выбирает цель убийства по стратегии (см. BasicBotStrategy),
+     * логирует ход и возвращает решение.
      *
      * Игрок фактически НЕ убивается здесь, только выбирается.
      */
@@ -66,62 +135,62 @@ public class AIPlayer {
                                            long aiTelegramId,
                                            long aiDbUserId) throws Exception {
 
-        GameManager gm = session.getManager();
+        MafiaPlan plan = planMafiaKill(session.getManager(), aiTelegramId);
+        if (plan == null) {
+            return null;
+        }
 
-        Player self = null;
-        List<Player> sheriffs = new ArrayList<>();
-        List<Player> towns = new ArrayList<>();
+        // Запись хода в moves
+        long moveId = moveDao.insertMove(
+                session.getGameId(),
+                aiDbUserId,
+                "ai_night_choice",
+                "targetTelegramId=" + plan.target.getChatId()
+        );
 
-        for (Player p : gm.getPlayers()) {
-            if (!p.isAlive()) continue;
+        // Обучающий пример
+        trainingDao.insertTrainingRows(List.of(trainingRow(session.getGameId(), moveId, plan)));
 
-            if (p.getChatId() == aiTelegramId) {
-                self = p;
-                continue;
-            }
+        return plan.toDecision(moveId);
+    }
 
-            if (p.getRole() == Role.MAFIA) {
-                continue; // своих не трогаем
-            }
+    /**
+     * Выбор цели мафии и объяснение от LLM без записи в БД — чтобы ночные действия
+     * разных ролей можно было считать параллельно, а записать одной пачкой.
+     * @return null, если мафия мертва или цели нет
+     */
+    public MafiaPlan planMafiaKill(GameManager gm, long aiTelegramId) {
+        return planMafiaKillAsync(gm, aiTelegramId).join();
+    }
 
-            if (p.getRole() == Role.SHERIFF) {
-                sheriffs.add(p);
-            } else {
-                towns.add(p); // TOWN/DOCTOR/неизвестно
-            }
-        }
+    /**
+     * То же асинхронно: цель выбирается сразу в вызывающем потоке, а объяснение
+     * LLM приходит позже и не занимает поток на время запроса.
+     */
+    public CompletableFuture<MafiaPlan> planMafiaKillAsync(GameManager gm, long aiTelegramId) {
+        return planMafiaKillAsync(gm, aiTelegramId, null);
+    }
 
-        if (self == null) {
-            return null;
-        }
-        if (sheriffs.isEmpty() && towns.isEmpty()) {
-            return null;
+    /**
+     * То же, но объяснение LLM приходит в onExplanation по кускам, по мере генерации
+     * (весь накопленный текст каждый раз). null — без потока.
+     */
+    public CompletableFuture<MafiaPlan> planMafiaKillAsync(GameManager gm, long aiTelegramId,
+                                                           Consumer<String> onExplanation) {
+        Player self = gm.getPlayer(aiTelegramId);
+        if (self == null || !self.isAlive()) {
+            return CompletableFuture.completedFuture(null);
         }
 
-        Player target;
-        String strategicReason;
-
-        if (!sheriffs.isEmpty()) {
-            target = sheriffs.get(random.nextInt(sheriffs.size()));
-            strategicReason =
-                    "Шериф опасен для мафии, поэтому его выгодно убрать как можно раньше.";
-        } else {
-            target = towns.get(random.nextInt(towns.size()));
-            strategicReason =
-                    "Уменьшение числа мирных повышает шансы мафии на победу.";
+        BotStrategy.Kill kill = strategy.chooseKill(gm, self, random);
+        if (kill == null) {
+            return CompletableFuture.completedFuture(null);
         }
+        Player target = kill.target;
 
         // просто добавим обвинение в историю
         gm.accuse(aiTelegramId, target.getChatId());
 
-        // Запись хода в moves
-        long moveId = moveDao.insertMove(
-                session.getGameId(),
-                aiDbUserId,
-                "ai_night_choice",
-                "targetTelegramId=" + target.getChatId()
-        );
-
         // Снимок состояния для training_data
         GameStateSnapshot snapshot = GameStateSnapshot.fromManager(gm, "MAFIA_AI");
         String snapshotJson = gson.toJson(snapshot);
@@ -132,25 +201,23 @@ public class AIPlayer {
                         "Живые игроки: " + snapshot.aliveUsernames + "\n" +
                         "Ты выбрал цель: " + target.getUsername() + "\n" +
                         "Кратко объясни, почему мафия могла выбрать именно этого игрока.";
-        String explanation = llmService.generateResponse(llmContext);
+        CompletableFuture<String> llmAnswer = onExplanation != null
+                ? explainStreaming(llmContext, onExplanation)
+                : explainAsync(llmContext);
+        return llmAnswer
+                .thenApply(explanation -> new MafiaPlan(target, kill.reason, explanation, snapshotJson));
+    }
 
-        // Обучающий пример
-        trainingDao.insertTrainingRow(
-                session.getGameId(),
+    /** Строка training_data для записанного хода мафии. */
+    public TrainingDataDao.Row trainingRow(long gameId, long moveId, MafiaPlan plan) {
+        return new TrainingDataDao.Row(
+                gameId,
                 moveId,
                 "mafia_ai",
-                snapshotJson,
-                "chooseKill:" + target.getUsername(),
+                plan.snapshotJson,
+                "chooseKill:" + plan.target.getUsername(),
                 "unknown"
         );
-
-        return new MafiaDecision(
-                target.getChatId(),
-                target.getUsername(),
-                strategicReason,
-                explanation,
-                moveId
-        );
     }
 
     /**
@@ -158,29 +225,93 @@ public class AIPlayer {
      * Используется в GameController.autoBotVotes().
      */
     public String explainDayVote(GameManager gm, Player bot, Player target) {
+        return explainDayVote(
+                GameStateSnapshot.fromManager(gm, bot.getRole() != null ? bot.getRole().name() : "UNKNOWN"),
+                bot,
+                target
+        );
+    }
+
+    /**
+     * То же по готовому снимку — чтобы не собирать его заново для каждого бота.
+     * Ответ LLM ждём не дольше llmBudgetMillis, дальше — локальное объяснение.
+     */
+    public String explainDayVote(GameStateSnapshot snapshot, Player bot, Player target) {
         try {
-            GameStateSnapshot snapshot = GameStateSnapshot.fromManager(
-                    gm,
-                    bot.getRole() != null ? bot.getRole().name() : "UNKNOWN"
-            );
-
-            String roleText = (bot.getRole() != null) ? bot.getRole().name() : "UNKNOWN";
-
-            String context =
-                    "Сейчас идёт дневное голосование в настольной игре \"Мафия\".\n" +
-                            "Ты играешь за роль: " + roleText + ".\n" +
-                            "Живые игроки: " + snapshot.aliveUsernames + ".\n" +
-                            "Ты решил проголосовать против игрока: " + target.getUsername() + ".\n" +
-                            "Кратко и по-русски объясни, почему такой выбор кажется логичным " +
-                            "с точки зрения твоей роли. 1–3 предложения.";
-
-            return llmService.generateResponse(context);
+            return explainAsync(dayVoteContext(snapshot, bot, target)).join();
         } catch (Exception e) {
             e.printStackTrace();
             return "Не удалось получить объяснение от LLM.";
         }
     }
 
+    /**
+     * Объяснения голосов нескольких ботов: bots.get(i) голосует против targets.get(i).
+     * С LLMFanOut запросы идут пачками параллельно с общим дедлайном (опоздавшие
+     * получают локальное объяснение), без него — одной пачкой generateBatch.
+     */
+    public List<String> explainDayVotes(GameStateSnapshot snapshot, List<Player> bots, List<Player> targets) {
+        List<String> contexts = new ArrayList<>(bots.size());
+        for (int i = 0; i < bots.size(); i++) {
+            contexts.add(dayVoteContext(snapshot, bots.get(i), targets.get(i)));
+        }
+        if (fanOut != null) {
+            return fanOut.generateAll(contexts);
+        }
+        try {
+            return llmService.generateBatch(contexts);
+        } catch (Exception e) {
+            e.printStackTrace();
+            List<String> result = new ArrayList<>(contexts.size());
+            for (int i = 0; i < contexts.size(); i++) {
+                result.add("Не удалось получить объяснение от LLM.");
+            }
+            return result;
+        }
+    }
+
+    /** Объяснение LLM в пределах бюджета, если он задан. */
+    private CompletableFuture<String> explainAsync(String context) {
+        return llmBudgetMillis > 0
+                ? llmService.generateResponseAsync(context, llmBudgetMillis, TimeUnit.MILLISECONDS)
+                : llmService.generateResponseAsync(context);
+    }
+
+    /**
+     * Потоковое объяснение. Бюджет ограничивает ожидание первого куска: если текст уже
+     * пошёл, дожидаемся конца (его ограничивает таймаут HTTP-вызова).
+     */
+    private CompletableFuture<String> explainStreaming(String context, Consumer<String> onText) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        AtomicBoolean started = new AtomicBoolean();
+        llmService.generateResponseStreaming(context, partial -> {
+            started.set(true);
+            if (!result.isDone()) onText.accept(partial);
+        }).whenComplete((text, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(text);
+            }
+        });
+        if (llmBudgetMillis > 0) {
+            CompletableFuture.delayedExecutor(llmBudgetMillis, TimeUnit.MILLISECONDS).execute(() -> {
+                if (!started.get()) result.complete(new LocalLLMStub().generateResponse(context));
+            });
+        }
+        return result;
+    }
+
+    private static String dayVoteContext(GameStateSnapshot snapshot, Player bot, Player target) {
+        String roleText = (bot.getRole() != null) ? bot.getRole().name() : "UNKNOWN";
+        return "Сейчас идёт дневное голосование в настольной игре \"Мафия\".\n" +
+                "Ты играешь за роль: " + roleText + ".\n" +
+                "Живые игроки: " + snapshot.aliveUsernames + ".\n" +
+                "Ты решил проголосовать против игрока: " + target.getUsername() + ".\n" +
+                "Кратко и по-русски объясни, почему такой выбор кажется логичным " +
+                "с точки зрения твоей роли. 1–3 предложения.";
+    }
+
     /**
      * Упрощённый снимок состояния игры для записи в training_data
      * и для контекста LLM.
@@ -192,17 +323,15 @@ public class AIPlayer {
         public List<String> aliveUsernames;
 
         public static GameStateSnapshot fromManager(GameManager gm, String aiRole) {
+            return fromSnapshot(gm.snapshot(), aiRole);
+        }
+
+        /** По неизменяемому снимку игры — без блокировки и без обхода живых игроков. */
+        public static GameStateSnapshot fromSnapshot(GameSnapshot game, String aiRole) {
             GameStateSnapshot s = new GameStateSnapshot();
-            s.totalPlayers = gm.getPlayers().size();
-            s.aliveUsernames = new ArrayList<>();
-            int alive = 0;
-            for (Player p : gm.getPlayers()) {
-                if (p.isAlive()) {
-                    alive++;
-                    s.aliveUsernames.add(p.getUsername());
-                }
-            }
-            s.aliveCount = alive;
+            s.totalPlayers = game.getPlayerCount();
+            s.aliveUsernames = game.getAliveUsernames();
+            s.aliveCount = game.getAliveCount();
             s.aiRole = aiRole;
             return s;
         }
@@ -0,0 +1,49 @@
+package com.example.mafiabot.game;
+
+import java.util.Random;
+
+/**
+ * Стратегия по умолчанию:
+ *  - мафия убивает шерифа, если он жив, иначе случайного не-мафию;
+ *  - доктор лечит случайного живого (в том числе себя);
+ *  - шериф проверяет случайного живого, кроме себя;
+ *  - днём мафия голосует против мирных, остальные — против мафии,
+ *    а если таких нет — против любого живого, кроме себя.
+ */
+public class BasicBotStrategy implements BotStrategy {
+
+    @Override
+    public Kill chooseKill(GameManager gm, Player mafia, Random rnd) {
+        Player target = gm.randomAliveWithRole(Role.SHERIFF, rnd, mafia.getChatId());
+        if (target != null) {
+            return new Kill(target,
+                    "Шериф опасен для мафии, поэтому его выгодно убрать как можно раньше.");
+        }
+        target = gm.randomAliveNotRole(Role.MAFIA, rnd, mafia.getChatId());
+        if (target == null) {
+            return null;
+        }
+        return new Kill(target, "Уменьшение числа мирных повышает шансы мафии на победу.");
+    }
+
+    @Override
+    public Player chooseHeal(GameManager gm, Player doctor, Random rnd) {
+        return gm.randomAlive(rnd, 0L);
+    }
+
+    @Override
+    public Player chooseCheck(GameManager gm, Player sheriff, Random rnd) {
+        return gm.randomAlive(rnd, sheriff.getChatId());
+    }
+
+    @Override
+    public Player chooseDayVote(GameManager gm, Player bot, Random rnd) {
+        Player target = bot.getRole() == Role.MAFIA
+                ? gm.randomAliveNotRole(Role.MAFIA, rnd, bot.getChatId())
+                : gm.randomAliveWithRole(Role.MAFIA, rnd, bot.getChatId());
+        if (target == null) {
+            target = gm.randomAlive(rnd, bot.getChatId());
+        }
+        return target;
+    }
+}
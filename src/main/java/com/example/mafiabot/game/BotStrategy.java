@@ -0,0 +1,36 @@
+package com.example.mafiabot.game;
+
+import java.util.Random;
+
+/**
+ * Решения ботов: кого убить, вылечить, проверить и за кого голосовать днём.
+ *
+ * Только выбор — без БД, LLM и побочных эффектов, поэтому одна и та же стратегия
+ * работает и в живых играх (GameController, AIPlayer), и в симуляциях.
+ * Вся случайность берётся из переданного rnd: с одинаковым seed решения повторяются.
+ */
+public interface BotStrategy {
+
+    /** Выбор мафии с объяснением для игроков. */
+    final class Kill {
+        public final Player target;
+        public final String reason;
+
+        public Kill(Player target, String reason) {
+            this.target = target;
+            this.reason = reason;
+        }
+    }
+
+    /** Цель мафии на ночь; null, если убивать некого. */
+    Kill chooseKill(GameManager gm, Player mafia, Random rnd);
+
+    /** Кого лечит доктор; null — никого. */
+    Player chooseHeal(GameManager gm, Player doctor, Random rnd);
+
+    /** Кого проверяет шериф; null — никого. */
+    Player chooseCheck(GameManager gm, Player sheriff, Random rnd);
+
+    /** Против кого бот голосует днём; null — воздерживается. */
+    Player chooseDayVote(GameManager gm, Player bot, Random rnd);
+}
@@ -0,0 +1,61 @@
+package com.example.mafiabot.game;
+
+import com.example.mafiabot.db.GameCheckpointDao;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Хранилище сессий в таблице game_checkpoints: одна строка на чат.
+ * Используется и для выгрузки простаивающих сессий, и для восстановления игр после рестарта.
+ */
+public class DbSessionStore implements SessionStore {
+
+    private final GameCheckpointDao checkpointDao;
+
+    public DbSessionStore(GameCheckpointDao checkpointDao) {
+        this.checkpointDao = checkpointDao;
+    }
+
+    @Override
+    public void save(GameSession session) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            session.writeTo(out);
+        }
+        try {
+            checkpointDao.save(session.getChatId(), session.getGameId(), bytes.toByteArray());
+        } catch (SQLException e) {
+            throw new IOException("Failed to save checkpoint for chat " + session.getChatId(), e);
+        }
+    }
+
+    @Override
+    public GameSession load(long chatId) throws IOException {
+        byte[] state;
+        try {
+            state = checkpointDao.load(chatId);
+        } catch (SQLException e) {
+            throw new IOException("Failed to load checkpoint for chat " + chatId, e);
+        }
+        if (state == null) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(state))) {
+            return GameSession.readFrom(in);
+        }
+    }
+
+    @Override
+    public void delete(long chatId) throws IOException {
+        try {
+            checkpointDao.delete(chatId);
+        } catch (SQLException e) {
+            throw new IOException("Failed to delete checkpoint for chat " + chatId, e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.mafiabot.game;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Сессии на диске: один файл на чат, &lt;dir&gt;/&lt;chatId&gt;.bin.
+ * Запись идёт во временный файл с последующим атомарным переименованием,
+ * поэтому при падении посреди записи остаётся старая версия.
+ */
+public class FileSessionStore implements SessionStore {
+
+    private final Path dir;
+
+    public FileSessionStore(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+    }
+
+    @Override
+    public void save(GameSession session) throws IOException {
+        Path target = fileFor(session.getChatId());
+        // своё имя на каждую запись: одновременные сохранения не пишут в один файл
+        Path tmp = Files.createTempFile(dir, session.getChatId() + "-", ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tmp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+                session.writeTo(out);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public GameSession load(long chatId) throws IOException {
+        try (InputStream is = Files.newInputStream(fileFor(chatId));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+            return GameSession.readFrom(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void delete(long chatId) throws IOException {
+        Files.deleteIfExists(fileFor(chatId));
+    }
+
+    private Path fileFor(long chatId) {
+        return dir.resolve(chatId + ".bin");
+    }
+}
@@ -5,13 +5,22 @@ import com.example.mafiabot.db.GamePlayerDao;
 import com.example.mafiabot.db.MoveDao;
 import com.example.mafiabot.db.TrainingDataDao;
 import com.example.mafiabot.db.UserDao;
+import com.example.mafiabot.llm.TokenUsage;
 
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 public class GameController {
 
-    private final Map<Long, GameSession> sessions = new HashMap<>();
+    private final SessionRegistry sessions;
+    private final GameEventLog eventLog;
+    private final PhaseTimers phaseTimers;
 
     private final UserDao userDao;
     private final GameDao gameDao;
@@ -22,12 +31,47 @@ public class GameController {
 
     private final Random random = new Random();
 
+    // Ночные действия ролей считаются параллельно (см. aiMove)
+    private static final int NIGHT_THREADS = 8;
+    private final AtomicInteger nightThreads = new AtomicInteger();
+    private final ExecutorService nightPool = Executors.newFixedThreadPool(NIGHT_THREADS, r -> {
+        Thread t = new Thread(r, "night-action-" + nightThreads.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
     public GameController(UserDao userDao,
                           GameDao gameDao,
                           GamePlayerDao gamePlayerDao,
                           MoveDao moveDao,
                           TrainingDataDao trainingDataDao,
                           AIPlayer aiPlayer) {
+        this(userDao, gameDao, gamePlayerDao, moveDao, trainingDataDao, aiPlayer, new SessionRegistry(), null);
+    }
+
+    public GameController(UserDao userDao,
+                          GameDao gameDao,
+                          GamePlayerDao gamePlayerDao,
+                          MoveDao moveDao,
+                          TrainingDataDao trainingDataDao,
+                          AIPlayer aiPlayer,
+                          SessionRegistry sessions,
+                          GameEventLog eventLog) {
+        this(userDao, gameDao, gamePlayerDao, moveDao, trainingDataDao, aiPlayer, sessions, eventLog, null);
+    }
+
+    public GameController(UserDao userDao,
+                          GameDao gameDao,
+                          GamePlayerDao gamePlayerDao,
+                          MoveDao moveDao,
+                          TrainingDataDao trainingDataDao,
+                          AIPlayer aiPlayer,
+                          SessionRegistry sessions,
+                          GameEventLog eventLog,
+                          PhaseTimers phaseTimers) {
+        this.sessions = sessions;
+        this.eventLog = eventLog;
+        this.phaseTimers = phaseTimers;
         this.userDao = userDao;
         this.gameDao = gameDao;
         this.gamePlayerDao = gamePlayerDao;
@@ -36,21 +80,61 @@ public class GameController {
         this.aiPlayer = aiPlayer;
     }
 
-    private GameSession getOrCreateSession(long chatId) throws SQLException {
-        GameSession s = sessions.get(chatId);
-        if (s == null) {
-            long gameId = gameDao.createGame(chatId);
-            GameManager gm = new GameManager();
-            s = new GameSession(chatId, gameId, gm);
-            sessions.put(chatId, s);
+    private GameSession getOrCreateSession(long chatId) throws Exception {
+        return attachEventLog(sessions.getOrCreate(chatId, this::createSession));
+    }
+
+    /** Подключить журнал событий (в том числе к сессии, поднятой из checkpoint). */
+    private GameSession attachEventLog(GameSession session) {
+        if (eventLog != null && !session.getManager().hasEventSink()) {
+            session.getManager().setEventSink(eventLog.sinkFor(session.getGameId()));
+        }
+        return session;
+    }
+
+    private GameSession createSession(long chatId) throws SQLException {
+        long gameId = gameDao.createGame(chatId);
+        return new GameSession(chatId, gameId, new GameManager());
+    }
+
+    /** Обработчик команды над сессией чата. */
+    private interface SessionAction {
+        String apply(GameSession session) throws Exception;
+    }
+
+    /**
+     * Выполнить команду и сохранить checkpoint сессии, если её состояние изменилось.
+     * Так после перезапуска процесса игра продолжается с последнего хода.
+     * Заодно переставляется дедлайн фазы, если фаза сменилась.
+     */
+    private String withCheckpoint(long chatId, SessionAction action) throws Exception {
+        GameSession session = getOrCreateSession(chatId);
+        try {
+            return action.apply(session);
+        } finally {
+            checkpoint(session);
+            if (phaseTimers != null) {
+                phaseTimers.update(chatId, session.getManager());
+            }
+        }
+    }
+
+    private void checkpoint(GameSession session) {
+        try {
+            sessions.checkpoint(session);
+        } catch (Exception e) {
+            // игра продолжается и без checkpoint — не роняем команду
+            System.err.println("Checkpoint failed for chat " + session.getChatId() + ": " + e.getMessage());
         }
-        return s;
     }
 
     // ===== /join, /addbots, /startgame — как раньше =====
 
     public String handleJoin(long chatId, long telegramUserId, String username) throws Exception {
-        GameSession session = getOrCreateSession(chatId);
+        return withCheckpoint(chatId, session -> join(session, telegramUserId, username));
+    }
+
+    private String join(GameSession session, long telegramUserId, String username) throws Exception {
         long dbUserId = userDao.getOrCreateUser(telegramUserId, username);
         session.putUserMapping(telegramUserId, dbUserId);
 
@@ -62,15 +146,13 @@ public class GameController {
         if (count <= 0) {
             return "Число ботов должно быть положительным.";
         }
-        GameSession session = getOrCreateSession(chatId);
+        return withCheckpoint(chatId, session -> addBots(session, count));
+    }
+
+    private String addBots(GameSession session, int count) throws Exception {
         GameManager gm = session.getManager();
 
-        int existingBots = 0;
-        for (Player p : gm.getPlayers()) {
-            if (p.getChatId() < 0) {
-                existingBots++;
-            }
-        }
+        int existingBots = gm.snapshot().countBots();
 
         for (int i = 0; i < count; i++) {
             long botTelegramId = -1000L - existingBots - i;
@@ -81,23 +163,26 @@ public class GameController {
         }
 
         return "Добавлено ботов: " + count +
-                ". Сейчас игроков (включая ботов): " + gm.getPlayers().size();
+                ". Сейчас игроков (включая ботов): " + gm.snapshot().getPlayerCount();
     }
 
     public String handleStartGame(long chatId) throws Exception {
-        GameSession session = getOrCreateSession(chatId);
+        return withCheckpoint(chatId, this::startGame);
+    }
+
+    private String startGame(GameSession session) throws Exception {
         GameManager gm = session.getManager();
 
-        int totalPlayers = gm.getPlayers().size();
-        if (totalPlayers != 7) {
-            return "Для этой версии игры нужно ровно 7 игроков (2 мафии, 3 мирных, 1 шериф, 1 доктор).\n" +
+        int totalPlayers = gm.snapshot().getPlayerCount();
+        if (totalPlayers < RoleDistribution.MIN_PLAYERS || totalPlayers > RoleDistribution.MAX_PLAYERS) {
+            return "Для игры нужно от " + RoleDistribution.MIN_PLAYERS + " до " + RoleDistribution.MAX_PLAYERS + " игроков.\n" +
                     "Сейчас игроков: " + totalPlayers + ".\n" +
-                    "Используй /addbots N, чтобы довести число до 7.";
+                    "Используй /addbots N, чтобы добавить ботов.";
         }
 
         gm.startGame();
 
-        for (Player p : gm.getPlayers()) {
+        for (GameSnapshot.PlayerInfo p : gm.snapshot().getPlayers()) {
             Long dbUserId = session.getDbUserId(p.getChatId());
             if (dbUserId != null) {
                 boolean isAi = p.getChatId() < 0;
@@ -110,14 +195,27 @@ public class GameController {
             }
         }
 
-        return "Игра началась! Роли разданы: в партии есть 2 мафии, 3 мирных, шериф и доктор.\n" +
+        return "Игра началась! Роли разданы: " + gm.getRoleDistribution().describe(totalPlayers) + ".\n" +
                 "Сейчас НОЧЬ. Все роли ходят через /ai_move.";
     }
 
     // ===== НОЧЬ: /ai_move — как раньше =====
 
     public String handleAiMove(long chatId) throws Exception {
-        GameSession session = getOrCreateSession(chatId);
+        return handleAiMove(chatId, null);
+    }
+
+    /**
+     * То же с промежуточным текстом: пока LLM пишет объяснение мафии, progress
+     * получает черновик итогов ночи (например, чтобы править сообщение в чате).
+     * Возвращаемый текст — окончательный.
+     */
+    public String handleAiMove(long chatId, Consumer<String> progress) throws Exception {
+        return withCheckpoint(chatId, session -> aiMove(session, progress));
+    }
+
+    @SuppressWarnings("try") // метка TokenUsage.tag() в теле не используется
+    private String aiMove(GameSession session, Consumer<String> progress) throws Exception {
         GameManager gm = session.getManager();
 
         if (gm.isFinished()) {
@@ -128,24 +226,16 @@ public class GameController {
                     "). Ночной ход доступен только ночью.";
         }
 
-        List<Player> mafias = new ArrayList<>();
-        Player doctor = null;
-        Player sheriff = null;
-
-        for (Player p : gm.getPlayers()) {
-            if (!p.isAlive() || p.getRole() == null) continue;
-
-            switch (p.getRole()) {
-                case MAFIA -> mafias.add(p);
-                case DOCTOR -> doctor = p;
-                case SHERIFF -> sheriff = p;
-                default -> {}
-            }
-        }
+        List<Player> mafias = gm.getAliveWithRole(Role.MAFIA);
+        List<Player> doctors = gm.getAliveWithRole(Role.DOCTOR);
+        List<Player> sheriffs = gm.getAliveWithRole(Role.SHERIFF);
 
         StringBuilder out = new StringBuilder();
 
-        AIPlayer.MafiaDecision decision = null;
+        // Все ночные действия — независимые задачи: выбор цели мафии с объяснением LLM,
+        // лечение каждого доктора, проверка каждого шерифа. Ночь длится столько,
+        // сколько самое медленное действие, а не сумму всех.
+        CompletableFuture<MafiaAction> mafiaTask = CompletableFuture.completedFuture(null);
         if (!mafias.isEmpty()) {
             Player actingMafia = null;
             for (Player m : mafias) {
@@ -157,77 +247,90 @@ public class GameController {
             if (actingMafia == null) {
                 actingMafia = mafias.get(0);
             }
-
-            Long mafiaDbId = session.getDbUserId(actingMafia.getChatId());
-            if (mafiaDbId == null) {
-                mafiaDbId = userDao.getOrCreateUser(actingMafia.getChatId(), actingMafia.getUsername());
-                session.putUserMapping(actingMafia.getChatId(), mafiaDbId);
+            Player mafia = actingMafia;
+            // объяснение LLM идёт асинхронно и не занимает поток, пока ищется id в БД
+            CompletableFuture<Long> mafiaDbId = CompletableFuture.supplyAsync(() -> dbUserIdOf(session, mafia), nightPool);
+            Consumer<String> onExplanation = progress == null ? null
+                    : partial -> progress.accept("Мафия выбирает жертву…\nОбъяснение ИИ: " + partial);
+            try (TokenUsage.Tag t = TokenUsage.tag(session.getChatId(), "mafia_night")) {
+                mafiaTask = aiPlayer.planMafiaKillAsync(gm, mafia.getChatId(), onExplanation)
+                        .thenCombine(mafiaDbId, (plan, dbId) -> plan != null ? new MafiaAction(dbId, plan) : null);
             }
+        }
 
-            decision = aiPlayer.decideMafiaTarget(session, actingMafia.getChatId(), mafiaDbId);
+        List<CompletableFuture<NightAction>> heals = new ArrayList<>();
+        for (Player doctor : doctors) {
+            heals.add(CompletableFuture.supplyAsync(() -> nightAction(session, doctor,
+                    aiPlayer.getStrategy().chooseHeal(gm, doctor, random)), nightPool));
+        }
+        List<CompletableFuture<NightAction>> checks = new ArrayList<>();
+        for (Player sheriff : sheriffs) {
+            checks.add(CompletableFuture.supplyAsync(() -> nightAction(session, sheriff,
+                    aiPlayer.getStrategy().chooseCheck(gm, sheriff, random)), nightPool));
+        }
+
+        // итоги ночи подводим только когда все действия готовы
+        List<CompletableFuture<?>> all = new ArrayList<>(heals);
+        all.addAll(checks);
+        all.add(mafiaTask);
+        try {
+            CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception ex ? ex : e;
+        }
+
+        // все записи ночи — одной пачкой
+        List<MoveDao.Move> moves = new ArrayList<>();
+        MafiaAction mafia = mafiaTask.join();
+        if (mafia != null) {
+            moves.add(new MoveDao.Move(session.getGameId(), mafia.dbUserId, "ai_night_choice",
+                    "targetTelegramId=" + mafia.plan.target.getChatId()));
+        }
+        Set<Long> healedIds = new HashSet<>();
+        for (CompletableFuture<NightAction> f : heals) {
+            NightAction a = f.join();
+            if (a == null) continue;
+            healedIds.add(a.target.getChatId());
+            moves.add(new MoveDao.Move(session.getGameId(), a.dbUserId, "doctor_heal",
+                    "targetTelegramId=" + a.target.getChatId()));
+            gm.record(GameEvent.heal(a.actor.getChatId(), a.target.getChatId()));
+        }
+        for (CompletableFuture<NightAction> f : checks) {
+            NightAction a = f.join();
+            if (a == null) continue;
+            moves.add(new MoveDao.Move(session.getGameId(), a.dbUserId, "sheriff_check",
+                    "targetTelegramId=" + a.target.getChatId()));
+            gm.record(GameEvent.check(a.actor.getChatId(), a.target.getChatId()));
+        }
+        long[] moveIds = moveDao.insertMoves(moves);
 
-            if (decision != null) {
-                out.append("Мафия решила убить игрока: ")
-                        .append(decision.targetUsername)
-                        .append(".\n")
-                        .append("Стратегия: ").append(decision.strategicReason).append("\n")
-                        .append("Объяснение ИИ: ").append(decision.explanation).append("\n");
-            } else {
-                out.append("Мафия этой ночью не смогла выбрать цель.\n");
-            }
-        } else {
-            out.append("Все мафии мертвы — ночью никто не атакует.\n");
+        AIPlayer.MafiaDecision decision = null;
+        if (mafia != null) {
+            decision = mafia.plan.toDecision(moveIds[0]);
+            trainingDataDao.insertTrainingRows(List.of(
+                    aiPlayer.trainingRow(session.getGameId(), decision.moveId, mafia.plan)));
         }
 
-        Long doctorTargetId = null;
-        if (doctor != null && doctor.isAlive()) {
-            List<Player> candidates = new ArrayList<>();
-            for (Player p : gm.getPlayers()) {
-                if (p.isAlive()) {
-                    candidates.add(p);
-                }
-            }
-            if (!candidates.isEmpty()) {
-                Player dt = candidates.get(random.nextInt(candidates.size()));
-                doctorTargetId = dt.getChatId();
-
-                Long docDbId = session.getDbUserId(doctor.getChatId());
-                if (docDbId == null) {
-                    docDbId = userDao.getOrCreateUser(doctor.getChatId(), doctor.getUsername());
-                    session.putUserMapping(doctor.getChatId(), docDbId);
-                }
-                moveDao.insertMove(
-                        session.getGameId(),
-                        docDbId,
-                        "doctor_heal",
-                        "targetTelegramId=" + doctorTargetId
-                );
-            }
-            out.append("Доктор попытался спасти одного из игроков.\n");
+        if (mafias.isEmpty()) {
+            out.append("Все мафии мертвы — ночью никто не атакует.\n");
+        } else if (decision != null) {
+            out.append("Мафия решила убить игрока: ")
+                    .append(decision.targetUsername)
+                    .append(".\n")
+                    .append("Стратегия: ").append(decision.strategicReason).append("\n")
+                    .append("Объяснение ИИ: ").append(decision.explanation).append("\n");
+        } else {
+            out.append("Мафия этой ночью не смогла выбрать цель.\n");
         }
-
-        if (sheriff != null && sheriff.isAlive()) {
-            List<Player> candidates = new ArrayList<>();
-            for (Player p : gm.getPlayers()) {
-                if (!p.isAlive()) continue;
-                if (p.getChatId() == sheriff.getChatId()) continue;
-                candidates.add(p);
-            }
-            if (!candidates.isEmpty()) {
-                Player checked = candidates.get(random.nextInt(candidates.size()));
-                Long sherDbId = session.getDbUserId(sheriff.getChatId());
-                if (sherDbId == null) {
-                    sherDbId = userDao.getOrCreateUser(sheriff.getChatId(), sheriff.getUsername());
-                    session.putUserMapping(sheriff.getChatId(), sherDbId);
-                }
-                moveDao.insertMove(
-                        session.getGameId(),
-                        sherDbId,
-                        "sheriff_check",
-                        "targetTelegramId=" + checked.getChatId()
-                );
-            }
-            out.append("Шериф этой ночью кого-то проверил.\n");
+        if (!doctors.isEmpty()) {
+            out.append(doctors.size() == 1
+                    ? "Доктор попытался спасти одного из игроков.\n"
+                    : "Доктора (" + doctors.size() + ") попытались спасти игроков.\n");
+        }
+        if (!sheriffs.isEmpty()) {
+            out.append(sheriffs.size() == 1
+                    ? "Шериф этой ночью кого-то проверил.\n"
+                    : "Шерифы (" + sheriffs.size() + ") этой ночью кого-то проверили.\n");
         }
 
         boolean someoneDied = false;
@@ -235,10 +338,10 @@ public class GameController {
 
         if (decision != null && decision.targetTelegramId != 0L) {
             long targetId = decision.targetTelegramId;
-            if (doctorTargetId != null && doctorTargetId == targetId) {
+            if (healedIds.contains(targetId)) {
                 out.append("Доктор спас предполагаемую жертву — этой ночью никто не погиб.\n");
             } else {
-                Player victim = findPlayerByTelegramId(gm, targetId);
+                Player victim = gm.getPlayer(targetId);
                 if (victim != null && victim.isAlive()) {
                     gm.kill(targetId);
                     someoneDied = true;
@@ -271,55 +374,68 @@ public class GameController {
         return out.toString().trim();
     }
 
-    private Player findPlayerByTelegramId(GameManager gm, long telegramId) {
-        for (Player p : gm.getPlayers()) {
-            if (p.getChatId() == telegramId) {
-                return p;
-            }
+    /** Ночное действие доктора или шерифа: кто, на кого, его id в БД. */
+    private static final class NightAction {
+        final Player actor;
+        final Player target;
+        final long dbUserId;
+
+        NightAction(Player actor, Player target, long dbUserId) {
+            this.actor = actor;
+            this.target = target;
+            this.dbUserId = dbUserId;
+        }
+    }
+
+    /** Выбор мафии и id её игрока в БД. */
+    private static final class MafiaAction {
+        final long dbUserId;
+        final AIPlayer.MafiaPlan plan;
+
+        MafiaAction(long dbUserId, AIPlayer.MafiaPlan plan) {
+            this.dbUserId = dbUserId;
+            this.plan = plan;
         }
-        return null;
+    }
+
+    private NightAction nightAction(GameSession session, Player actor, Player target) {
+        return target != null ? new NightAction(actor, target, dbUserIdOf(session, actor)) : null;
+    }
+
+    /** id игрока в БД; если привязки ещё нет — создаётся. Для задач ночи — без проверяемых исключений. */
+    private long dbUserIdOf(GameSession session, Player p) {
+        Long dbId = session.getDbUserId(p.getChatId());
+        if (dbId != null) return dbId;
+        try {
+            dbId = userDao.getOrCreateUser(p.getChatId(), p.getUsername());
+        } catch (SQLException e) {
+            throw new CompletionException(e);
+        }
+        session.putUserMapping(p.getChatId(), dbId);
+        return dbId;
     }
 
     /**
      * Автоматические голоса всех ботов днём + объяснения ИИ.
      * Возвращаем текст, который потом будет выведен в ответе /endday.
      */
+    @SuppressWarnings("try") // метка TokenUsage.tag() в теле не используется
     private String autoBotVotes(GameSession session, GameManager gm) throws Exception {
         StringBuilder info = new StringBuilder();
-        Map<Long, Long> currentVotes = gm.getDayVotesSnapshot();
-
-        for (Player bot : gm.getPlayers()) {
-            if (!bot.isAlive()) continue;
-            if (bot.getChatId() >= 0) continue;             // живой человек
-            if (currentVotes.containsKey(bot.getChatId())) continue; // бот уже голосовал
-
-            List<Player> candidates = new ArrayList<>();
-            for (Player p : gm.getPlayers()) {
-                if (!p.isAlive()) continue;
-                if (p.getChatId() == bot.getChatId()) continue;
-
-                if (bot.getRole() == Role.MAFIA) {
-                    if (p.getRole() != Role.MAFIA) {
-                        candidates.add(p);
-                    }
-                } else {
-                    if (p.getRole() == Role.MAFIA) {
-                        candidates.add(p);
-                    }
-                }
-            }
+        // за время голосования никто не умирает — один снимок на всех ботов
+        GameSnapshot before = gm.snapshot();
+        AIPlayer.GameStateSnapshot snapshot = AIPlayer.GameStateSnapshot.fromSnapshot(before, null);
+        List<Player> voters = new ArrayList<>();
+        List<Player> targets = new ArrayList<>();
 
-            if (candidates.isEmpty()) {
-                for (Player p : gm.getPlayers()) {
-                    if (!p.isAlive()) continue;
-                    if (p.getChatId() == bot.getChatId()) continue;
-                    candidates.add(p);
-                }
-            }
+        for (GameSnapshot.PlayerInfo p : before.getPlayers()) {
+            if (!p.isAlive()) continue;
+            if (!p.isBot()) continue;                                  // живой человек
+            if (before.getDayVotes().containsKey(p.getChatId())) continue; // бот уже голосовал
+            Player bot = gm.getPlayer(p.getChatId());
 
-            if (candidates.isEmpty()) continue;
-
-            Player target = candidates.get(random.nextInt(candidates.size()));
+            Player target = aiPlayer.getStrategy().chooseDayVote(gm, bot, random);
+            if (target == null) continue;
 
             gm.castDayVote(bot.getChatId(), target.getChatId());
 
@@ -333,15 +449,22 @@ public class GameController {
                 );
             }
 
-            // Объяснение от LLM
-            String explanation = aiPlayer.explainDayVote(gm, bot, target);
+            voters.add(bot);
+            targets.add(target);
+        }
 
-            info.append(bot.getUsername())
+        // Объяснения от LLM — все сразу, а не по одному вызову на бота
+        List<String> explanations;
+        try (TokenUsage.Tag t = TokenUsage.tag(session.getChatId(), "day_vote")) {
+            explanations = aiPlayer.explainDayVotes(snapshot, voters, targets);
+        }
+        for (int i = 0; i < voters.size(); i++) {
+            info.append(voters.get(i).getUsername())
                     .append(" голосует против ")
-                    .append(target.getUsername())
+                    .append(targets.get(i).getUsername())
                     .append(".\n")
                     .append("Объяснение ИИ: ")
-                    .append(explanation)
+                    .append(explanations.get(i))
                     .append("\n\n");
         }
 
@@ -353,7 +476,12 @@ public class GameController {
     public String handleVote(long chatId,
                              long voterTelegramId,
                              String targetUsername) throws Exception {
-        GameSession session = getOrCreateSession(chatId);
+        return withCheckpoint(chatId, session -> vote(session, voterTelegramId, targetUsername));
+    }
+
+    private String vote(GameSession session,
+                        long voterTelegramId,
+                        String targetUsername) throws Exception {
         GameManager gm = session.getManager();
 
         if (gm.isFinished()) {
@@ -369,13 +497,7 @@ public class GameController {
             return "Сначала присоединись к игре через /join.";
         }
 
-        Player target = null;
-        for (Player p : gm.getPlayers()) {
-            if (p.getUsername().equalsIgnoreCase(targetUsername)) {
-                target = p;
-                break;
-            }
-        }
+        Player target = gm.findByUsername(targetUsername);
         if (target == null) {
             return "Игрок с ником " + targetUsername + " не найден среди участников.";
         }
@@ -391,16 +513,14 @@ public class GameController {
                 "targetTelegramId=" + target.getChatId()
         );
 
-        Map<Long, Long> votes = gm.getDayVotesSnapshot();
-        int voters = 0;
-        for (Map.Entry<Long, Long> e : votes.entrySet()) {
-            Player voter = findPlayerByTelegramId(gm, e.getKey());
-            if (voter != null && voter.isAlive()) {
-                voters++;
-            }
-        }
+        int voters = gm.getDayVoterCount();
         int alive = gm.getAliveCount();
 
+        if (gm.isMajorityEndsDay() && gm.hasDayMajority()) {
+            return base + "\nИгрок " + target.getUsername() + " набрал большинство голосов — день заканчивается досрочно.\n\n" +
+                    endDay(session);
+        }
+
         return base + "\nСейчас проголосовали " + voters + " из " + alive +
                 " живых игроков.\n" +
                 "Когда все (или ведущий решит), используй /endday для подсчёта голосов.";
@@ -415,7 +535,10 @@ public class GameController {
     // ===== /endday — теперь с объяснениями ботов =====
 
     public String handleEndDay(long chatId) throws Exception {
-        GameSession session = getOrCreateSession(chatId);
+        return withCheckpoint(chatId, this::endDay);
+    }
+
+    private String endDay(GameSession session) throws Exception {
         GameManager gm = session.getManager();
 
         if (gm.isFinished()) {
@@ -434,35 +557,16 @@ public class GameController {
                     .append(botInfo);
         }
 
-        Map<Long, Long> votes = gm.getDayVotesSnapshot();
-        if (votes.isEmpty()) {
+        if (gm.getDayVoterCount() == 0) {
             gm.setPhase(Phase.NIGHT);
             sb.append("Никто не голосовал. Никто не казнён.\n")
                     .append("Наступает НОЧЬ. Ночной ход выполняется через /ai_move.");
             return sb.toString();
         }
 
-        Map<Long, Integer> counts = new HashMap<>();
-        for (Map.Entry<Long, Long> e : votes.entrySet()) {
-            Player voter = findPlayerByTelegramId(gm, e.getKey());
-            if (voter == null || !voter.isAlive()) continue;
-            counts.merge(e.getValue(), 1, Integer::sum);
-        }
-
-        long bestTargetId = -1;
-        int bestCount = 0;
-        boolean tie = false;
-        for (Map.Entry<Long, Integer> e : counts.entrySet()) {
-            if (e.getValue() > bestCount) {
-                bestCount = e.getValue();
-                bestTargetId = e.getKey();
-                tie = false;
-            } else if (e.getValue() == bestCount) {
-                tie = true;
-            }
-        }
-
-        if (bestTargetId == -1 || bestCount == 0 || tie) {
+        // голоса выбывших уже сняты, лидер и ничья считаются по мере голосования
+        long bestTargetId = gm.getDayLeaderId();
+        if (bestTargetId == 0L || gm.isDayVoteTied()) {
             gm.clearDayVotes();
             gm.setPhase(Phase.NIGHT);
             sb.append("Голоса разделились или ни один игрок не набрал преимущества. Никто не был казнён.\n")
@@ -470,7 +574,7 @@ public class GameController {
             return sb.toString();
         }
 
-        Player lynch = findPlayerByTelegramId(gm, bestTargetId);
+        Player lynch = gm.getPlayer(bestTargetId);
         if (lynch == null || !lynch.isAlive()) {
             gm.clearDayVotes();
             gm.setPhase(Phase.NIGHT);
@@ -479,13 +583,7 @@ public class GameController {
             return sb.toString();
         }
 
-        Long execVoterDbId = null;
-        for (Map.Entry<Long, Long> e : votes.entrySet()) {
-            if (e.getValue().equals(bestTargetId)) {
-                execVoterDbId = session.getDbUserId(e.getKey());
-                break;
-            }
-        }
+        Long execVoterDbId = session.getDbUserId(gm.findVoterFor(bestTargetId));
 
         gm.kill(lynch.getChatId());
         if (execVoterDbId != null) {
@@ -520,24 +618,88 @@ public class GameController {
         return sb.toString();
     }
 
+    // ===== Правила голосования =====
+
+    public String handleSetMajorityEndsDay(long chatId, boolean enabled) throws Exception {
+        return withCheckpoint(chatId, session -> {
+            session.getManager().setMajorityEndsDay(enabled);
+            return enabled
+                    ? "Теперь день заканчивается досрочно, как только у кого-то большинство голосов живых игроков."
+                    : "Досрочное окончание дня выключено: голоса подсчитываются по /endday.";
+        });
+    }
+
+    /**
+     * /setroles — доли ролей чата, например «mafia=0.3 doctor=0.1 sheriff=0.1»;
+     * пустая строка показывает текущие, «default» возвращает стандартные.
+     */
+    public String handleSetRoles(long chatId, String spec) throws Exception {
+        return withCheckpoint(chatId, session -> {
+            GameManager gm = session.getManager();
+            int n = Math.max(gm.snapshot().getPlayerCount(), RoleDistribution.MIN_PLAYERS);
+            if (spec.isBlank()) {
+                return "Доли ролей: " + gm.getRoleDistribution() +
+                        "\nНа " + n + " игроков: " + gm.getRoleDistribution().describe(n) + ".";
+            }
+            if (gm.isStarted()) {
+                return "Роли уже розданы. Новые доли можно задать до /startgame или после /newgame.";
+            }
+            RoleDistribution rd;
+            try {
+                rd = spec.trim().equalsIgnoreCase("default")
+                        ? RoleDistribution.STANDARD
+                        : RoleDistribution.parse(spec, gm.getRoleDistribution());
+            } catch (IllegalArgumentException e) {
+                return e.getMessage() + "\nПример: /setroles mafia=0.25 doctor=0.1 sheriff=0.1";
+            }
+            gm.setRoleDistribution(rd);
+            return "Доли ролей: " + rd + "\nНа " + n + " игроков: " + rd.describe(n) + ".";
+        });
+    }
+
     // ===== /newgame и getSession =====
 
     public String handleNewGame(long chatId) throws Exception {
-        GameSession old = sessions.get(chatId);
-        if (old != null && !old.getManager().isFinished()) {
-            gameDao.finishGame(old.getGameId(), "unknown");
-            trainingDataDao.updateOutcomeForGame(old.getGameId(), "unknown");
+        GameSession session = sessions.replace(chatId, old -> {
+            // журнал подключаем до переноса настроек, чтобы их события попали в него
+            GameSession fresh = attachEventLog(createSession(chatId));
+            if (old != null) {
+                GameManager prev = old.getManager();
+                if (!prev.isFinished()) {
+                    gameDao.finishGame(old.getGameId(), "unknown");
+                    trainingDataDao.updateOutcomeForGame(old.getGameId(), "unknown");
+                }
+                // настройки чата переходят в новую партию
+                fresh.getManager().setRoleDistribution(prev.getRoleDistribution());
+                fresh.getManager().setMajorityEndsDay(prev.isMajorityEndsDay());
+            }
+            return fresh;
+        });
+        attachEventLog(session);
+        checkpoint(session);
+        if (phaseTimers != null) {
+            phaseTimers.update(chatId, session.getManager());
         }
 
-        long newGameId = gameDao.createGame(chatId);
-        GameManager gm = new GameManager();
-        GameSession session = new GameSession(chatId, newGameId, gm);
-        sessions.put(chatId, session);
-
-        return "Создана новая игра. Набери ровно 7 игроков (люди + боты) через /join и /addbots N, затем /startgame.";
+        return "Создана новая игра. Набери от " + RoleDistribution.MIN_PLAYERS + " до " + RoleDistribution.MAX_PLAYERS +
+                " игроков (люди + боты) через /join и /addbots N, затем /startgame.";
     }
 
-    public GameSession getSession(long chatId) {
+    public GameSession getSession(long chatId) throws Exception {
         return sessions.get(chatId);
     }
+
+    public SessionRegistry getSessions() {
+        return sessions;
+    }
+
+    /** Счётчики LLM-сервиса ИИ (кеш и т.п.) или null. */
+    public String getLlmStats() {
+        return aiPlayer.getLlmStats();
+    }
+
+    /** Дедлайны фаз или null, если фазы переключаются только командами. */
+    public PhaseTimers getPhaseTimers() {
+        return phaseTimers;
+    }
 }
@@ -0,0 +1,122 @@
+package com.example.mafiabot.game;
+
+/**
+ * Одно событие игры для журнала событий (GameEventLog).
+ *
+ * actor/target — telegram id игроков (0, если не нужен),
+ * payload — имя игрока, роль, фаза, победитель, вес голоса или значение настройки
+ * в зависимости от типа.
+ */
+public class GameEvent {
+
+    /** Тип события. Код пишется в журнал, поэтому коды менять нельзя. */
+    public enum Type {
+        JOIN(1),
+        ROLE_ASSIGNED(2),
+        NIGHT_KILL(3),
+        HEAL(4),
+        CHECK(5),
+        VOTE(6),
+        EXECUTION(7),
+        PHASE_CHANGE(8),
+        VOTES_CLEARED(9),
+        GAME_OVER(10),
+        VOTE_WEIGHT(11),
+        MAJORITY_ENDS_DAY(12),
+        ROLE_DISTRIBUTION(13);
+
+        public final int code;
+
+        Type(int code) {
+            this.code = code;
+        }
+
+        private static final Type[] BY_CODE = new Type[16];
+
+        static {
+            for (Type t : values()) {
+                BY_CODE[t.code] = t;
+            }
+        }
+
+        public static Type fromCode(int code) {
+            Type t = code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+            if (t == null) {
+                throw new IllegalArgumentException("Unknown event code: " + code);
+            }
+            return t;
+        }
+    }
+
+    public final Type type;
+    public final long actor;
+    public final long target;
+    public final String payload;
+
+    public GameEvent(Type type, long actor, long target, String payload) {
+        this.type = type;
+        this.actor = actor;
+        this.target = target;
+        this.payload = payload;
+    }
+
+    public static GameEvent join(long playerId, String username) {
+        return new GameEvent(Type.JOIN, playerId, 0, username);
+    }
+
+    public static GameEvent roleAssigned(long playerId, Role role) {
+        return new GameEvent(Type.ROLE_ASSIGNED, playerId, 0, role.name());
+    }
+
+    public static GameEvent nightKill(long victimId) {
+        return new GameEvent(Type.NIGHT_KILL, 0, victimId, null);
+    }
+
+    public static GameEvent heal(long doctorId, long targetId) {
+        return new GameEvent(Type.HEAL, doctorId, targetId, null);
+    }
+
+    public static GameEvent check(long sheriffId, long targetId) {
+        return new GameEvent(Type.CHECK, sheriffId, targetId, null);
+    }
+
+    public static GameEvent vote(long voterId, long targetId) {
+        return new GameEvent(Type.VOTE, voterId, targetId, null);
+    }
+
+    public static GameEvent execution(long victimId) {
+        return new GameEvent(Type.EXECUTION, 0, victimId, null);
+    }
+
+    public static GameEvent phaseChange(Phase phase) {
+        return new GameEvent(Type.PHASE_CHANGE, 0, 0, phase.name());
+    }
+
+    public static GameEvent votesCleared() {
+        return new GameEvent(Type.VOTES_CLEARED, 0, 0, null);
+    }
+
+    public static GameEvent gameOver(String winner) {
+        return new GameEvent(Type.GAME_OVER, 0, 0, winner);
+    }
+
+    public static GameEvent voteWeight(long playerId, int weight) {
+        return new GameEvent(Type.VOTE_WEIGHT, playerId, 0, Integer.toString(weight));
+    }
+
+    public static GameEvent majorityEndsDay(boolean enabled) {
+        return new GameEvent(Type.MAJORITY_ENDS_DAY, 0, 0, Boolean.toString(enabled));
+    }
+
+    /** Доли в формате RoleDistribution.parse, без округления. */
+    public static GameEvent roleDistribution(RoleDistribution rd) {
+        return new GameEvent(Type.ROLE_DISTRIBUTION, 0, 0,
+                "mafia=" + rd.getMafiaRatio() + " doctor=" + rd.getDoctorRatio() + " sheriff=" + rd.getSheriffRatio());
+    }
+
+    @Override
+    public String toString() {
+        return type + "(actor=" + actor + ", target=" + target +
+                (payload != null ? ", " + payload : "") + ")";
+    }
+}
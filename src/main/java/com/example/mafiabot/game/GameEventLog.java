@@ -0,0 +1,336 @@
+package com.example.mafiabot.game;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал событий игр: отдельный append-only файл на каждую игру, &lt;dir&gt;/&lt;gameId&gt;.log.
+ *
+ * События копятся в буфере игры и раз в flushInterval пачкой дописываются в файл
+ * с одним fsync на игру (group commit), так что запись остаётся последовательной
+ * и дешёвой. По журналу можно восстановить GameManager (см. replay).
+ *
+ * append() вызывается из GameManager под его блокировкой, поэтому под монитором файла
+ * игры нет ввода-вывода: сброс только подменяет заполненный буфер пустым, а write
+ * и fsync делает уже снаружи, под общим ioLock — он же держит сбросы одной игры
+ * (и закрытие старого файла перед открытием нового) по порядку.
+ *
+ * Формат файла: заголовок MAGIC + версия, далее записи
+ * [int длина тела][тело][int crc32 тела], тело — [byte тип][long actor][long target][payload].
+ * Недописанный или повреждённый хвост при чтении отбрасывается, а при повторном
+ * открытии файла на запись — обрезается, чтобы новые события не легли за ним.
+ */
+public class GameEventLog implements AutoCloseable {
+
+    private static final int MAGIC = 0x4D455654; // "MEVT"
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 5;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final long IDLE_CLOSE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final Path dir;
+    private final Map<Long, GameFile> files = new ConcurrentHashMap<>();
+    // запись в файлы и fsync; держится без монитора GameFile
+    private final Object ioLock = new Object();
+    private final ScheduledExecutorService flusher;
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong fsyncs = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public GameEventLog(Path dir, long flushInterval, TimeUnit unit) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "event-log-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushAll, flushInterval, flushInterval, unit);
+    }
+
+    /** Sink, пишущий события указанной игры в журнал. */
+    public GameEventSink sinkFor(long gameId) {
+        return event -> append(gameId, event);
+    }
+
+    /** Дописать событие в буфер игры. На диск попадёт при ближайшем flush. */
+    public void append(long gameId, GameEvent event) {
+        while (true) {
+            GameFile f = files.computeIfAbsent(gameId, GameFile::new);
+            synchronized (f) {
+                // файл мог закрыться между computeIfAbsent и блокировкой — берём новый
+                if (f.closed) continue;
+                f.write(event);
+                if (event.type == GameEvent.Type.GAME_OVER) {
+                    f.closeAfterFlush = true;
+                }
+            }
+            break;
+        }
+        appended.incrementAndGet();
+    }
+
+    /** Сбросить буферы всех игр на диск (write + fsync). */
+    public void flushAll() {
+        long now = System.nanoTime();
+        synchronized (ioLock) {
+            Iterator<GameFile> it = files.values().iterator();
+            while (it.hasNext()) {
+                GameFile f = it.next();
+                boolean close;
+                synchronized (f) {
+                    close = f.closeAfterFlush || now - f.lastWrite > IDLE_CLOSE_NANOS;
+                    if (close) {
+                        // новые события пойдут в новый GameFile; его запись ждёт ioLock
+                        f.closed = true;
+                        it.remove();
+                    }
+                }
+                try {
+                    try {
+                        if (f.flush()) {
+                            fsyncs.incrementAndGet();
+                        }
+                    } finally {
+                        if (close) f.closeChannel();
+                    }
+                } catch (IOException e) {
+                    failures.incrementAndGet();
+                    System.err.println("Event log flush failed for game " + f.gameId + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /** Прочитать все целые события игры по порядку. */
+    public List<GameEvent> read(long gameId) throws IOException {
+        // сначала сбрасываем то, что ещё лежит в буфере
+        synchronized (ioLock) {
+            GameFile open = files.get(gameId);
+            if (open != null) {
+                open.flush();
+            }
+        }
+
+        Path path = fileFor(gameId);
+        List<GameEvent> events = new ArrayList<>();
+        if (!Files.exists(path)) {
+            return events;
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(path));
+        checkHeader(buf, path);
+        scan(buf, events);
+        return events;
+    }
+
+    private static void checkHeader(ByteBuffer buf, Path path) throws IOException {
+        if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC) {
+            throw new IOException("Not an event log: " + path);
+        }
+        byte version = buf.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported event log version " + version + ": " + path);
+        }
+    }
+
+    /**
+     * Пройти целые записи от текущей позиции до первой недописанной или повреждённой.
+     * @param events куда складывать события; null — только найти конец
+     * @return смещение конца последней целой записи
+     */
+    private static int scan(ByteBuffer buf, List<GameEvent> events) {
+        CRC32 crc = new CRC32();
+        int end = buf.position();
+        while (buf.remaining() >= 4) {
+            int len = buf.getInt();
+            if (len <= 0 || buf.remaining() < len + 4) break; // недописанный хвост
+            int bodyStart = buf.position();
+            crc.reset();
+            crc.update(buf.array(), bodyStart, len);
+            int expected = buf.getInt(bodyStart + len);
+            if ((int) crc.getValue() != expected) break;
+
+            if (events != null) {
+                GameEvent.Type type = GameEvent.Type.fromCode(buf.get());
+                long actor = buf.getLong();
+                long target = buf.getLong();
+                int payloadLen = len - 17;
+                String payload = payloadLen > 0
+                        ? new String(buf.array(), buf.position(), payloadLen, StandardCharsets.UTF_8)
+                        : null;
+                events.add(new GameEvent(type, actor, target, payload));
+            }
+            end = bodyStart + len + 4;
+            buf.position(end);
+        }
+        return end;
+    }
+
+    /** Восстановить состояние игры, проиграв её журнал. */
+    public GameManager replay(long gameId) throws IOException {
+        return GameManager.replay(read(gameId));
+    }
+
+    public long getAppendedCount() { return appended.get(); }
+    public long getFsyncCount() { return fsyncs.get(); }
+    public long getFailureCount() { return failures.get(); }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        for (GameFile f : files.values()) {
+            synchronized (f) {
+                f.closeAfterFlush = true;
+            }
+        }
+        flushAll();
+    }
+
+    private Path fileFor(long gameId) {
+        return dir.resolve(gameId + ".log");
+    }
+
+    /**
+     * Открытый файл журнала одной игры с буфером ещё не записанных событий.
+     * Буфер, dirty и флаги — под монитором объекта, channel — под ioLock.
+     */
+    private class GameFile {
+        final long gameId;
+        final CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        // пустой буфер на подмену при сбросе; null, пока сброс пишет прежний
+        ByteBuffer spare = ByteBuffer.allocate(BUFFER_SIZE);
+        FileChannel channel;
+        boolean dirty;
+        boolean closeAfterFlush;
+        boolean closed;
+        long lastWrite = System.nanoTime();
+
+        GameFile(long gameId) {
+            this.gameId = gameId;
+        }
+
+        void write(GameEvent e) {
+            byte[] payload = e.payload != null ? e.payload.getBytes(StandardCharsets.UTF_8) : null;
+            int len = 17 + (payload != null ? payload.length : 0);
+            if (buffer.remaining() < len + 8) {
+                // писать в файл под монитором нельзя — до ближайшего сброса буфер растёт
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + len + 8));
+                buffer.flip();
+                bigger.put(buffer);
+                buffer = bigger;
+            }
+            buffer.putInt(len);
+            int bodyStart = buffer.position();
+            buffer.put((byte) e.type.code);
+            buffer.putLong(e.actor);
+            buffer.putLong(e.target);
+            if (payload != null) {
+                buffer.put(payload);
+            }
+            crc.reset();
+            crc.update(buffer.array(), bodyStart, len);
+            buffer.putInt((int) crc.getValue());
+            dirty = true;
+            lastWrite = System.nanoTime();
+        }
+
+        /**
+         * Открыть файл на дозапись. Если игра уже писала в него (например, до падения),
+         * недописанная запись в хвосте обрезается: read() останавливается на первой
+         * битой записи, и всё дописанное за ней было бы потеряно.
+         */
+        private void open() throws IOException {
+            Path path = fileFor(gameId);
+            FileChannel ch = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            try {
+                long size = ch.size();
+                if (size > 0 && size < HEADER_SIZE) {
+                    // упали, не дописав даже заголовок
+                    ch.truncate(0);
+                    size = 0;
+                }
+                if (size == 0) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    header.putInt(MAGIC).put(VERSION).flip();
+                    ch.write(header);
+                } else {
+                    ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(path));
+                    checkHeader(buf, path);
+                    int end = scan(buf, null);
+                    if (end < size) {
+                        System.err.println("Event log for game " + gameId + ": truncating torn tail of " +
+                                (size - end) + " bytes");
+                        ch.truncate(end);
+                    }
+                }
+            } catch (IOException e) {
+                ch.close();
+                throw e;
+            }
+            channel = ch;
+        }
+
+        /**
+         * Записать накопленное и сделать fsync. Вызывается под ioLock; монитор объекта
+         * берётся только на подмену буфера. @return был ли fsync
+         */
+        boolean flush() throws IOException {
+            ByteBuffer full;
+            synchronized (this) {
+                if (!dirty) return false;
+                full = buffer;
+                buffer = spare;
+                spare = null;
+                dirty = false;
+            }
+            try {
+                if (channel == null) {
+                    open();
+                }
+                full.flip();
+                while (full.hasRemaining()) {
+                    channel.write(full);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                // пачка потеряна; недописанный хвост обрежет следующий open()
+                closeChannel();
+                throw e;
+            } finally {
+                full.clear();
+                synchronized (this) {
+                    spare = full;
+                }
+            }
+            return true;
+        }
+
+        /** Вызывается под ioLock. */
+        void closeChannel() throws IOException {
+            if (channel != null) {
+                FileChannel ch = channel;
+                channel = null;
+                ch.close();
+            }
+        }
+    }
+}
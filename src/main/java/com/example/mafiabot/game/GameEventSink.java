@@ -0,0 +1,9 @@
+package com.example.mafiabot.game;
+
+/**
+ * Получатель событий игры (например, журнал GameEventLog).
+ */
+@FunctionalInterface
+public interface GameEventSink {
+    void accept(GameEvent event);
+}
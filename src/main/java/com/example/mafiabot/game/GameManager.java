@@ -1,5 +1,8 @@
 package com.example.mafiabot.game;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -7,12 +10,21 @@ import java.util.*;
  */
 public class GameManager {
 
-    // telegramId -> Player
-    private final Map<Long, Player> players = new LinkedHashMap<>();
+    // Игроки: плотные индексы, маски «жив» и ролей (Player — представление над ними)
+    private final GameState state = new GameState();
     private final List<Round> rounds = new ArrayList<>();
 
-    // Голоса днём: voterId -> targetId
-    private final Map<Long, Long> dayVotes = new HashMap<>();
+    // ник (в нижнем регистре) -> игрок
+    private final Map<String, Player> byUsername = new HashMap<>();
+
+    // Голоса днём по индексам игроков, с живым подсчётом по целям
+    private final VoteTally tally = new VoteTally();
+
+    // Правило: день заканчивается, как только у лидера большинство голосов
+    private boolean majorityEndsDay = false;
+
+    // Доли ролей для раздачи при старте
+    private RoleDistribution roleDistribution = RoleDistribution.STANDARD;
 
     private boolean started = false;
     private boolean finished = false;
@@ -20,14 +32,37 @@ public class GameManager {
 
     private Phase phase = Phase.LOBBY;
 
-    private final Random rnd = new Random();
+    // Счётчик изменений состояния (версия) — по нему видно, нужен ли новый checkpoint
+    // и не устарел ли опубликованный снимок. Пишется под блокировкой, читается без неё.
+    private volatile long modCount = 0;
+
+    // Последний собранный снимок; пересобирается при первом чтении новой версии
+    private volatile GameSnapshot snapshot;
+
+    // Куда писать события игры (журнал); null — никуда
+    private GameEventSink eventSink;
+
+    private final Random rnd;
+
+    public GameManager() {
+        this(new Random());
+    }
+
+    /** С заданным генератором — для воспроизводимой раздачи ролей (симуляции). */
+    public GameManager(Random rnd) {
+        this.rnd = rnd;
+    }
 
     /** Игрок входит в лобби (пока игра не началась). */
     public synchronized void joinPlayer(long chatId, String username) {
         if (started) {
             return; // после старта не принимаем новых
         }
-        players.putIfAbsent(chatId, new Player(chatId, username));
+        if (state.indexOf(chatId) < 0) {
+            addPlayer(new Player(chatId, username));
+            modCount++;
+            emit(GameEvent.join(chatId, username));
+        }
     }
 
     /** Старт игры + раздача ролей. Первая фаза — НОЧЬ. */
@@ -35,58 +70,30 @@ public class GameManager {
         if (started) return;
         started = true;
         assignRoles();
+        for (Player p : state.players()) {
+            if (p.getRole() != null) {
+                emit(GameEvent.roleAssigned(p.getChatId(), p.getRole()));
+            }
+        }
         phase = Phase.NIGHT;
+        modCount++;
+        emit(GameEvent.phaseChange(phase));
     }
 
     /**
-     * Распределяем роли:
-     *  - 2 мафии
-     *  - 1 шериф
-     *  - 1 доктор
-     *  - остальные (в нашем режиме это ещё 3) — мирные
-     *
-     * Ожидается, что игроков ровно 7.
+     * Раздаём роли по правилам чата (RoleDistribution) за один проход по игрокам.
      */
     private void assignRoles() {
-        List<Player> list = new ArrayList<>(players.values());
-        int n = list.size();
-        if (n < 4) {
-            // fallback: если вдруг кто-то запустил без нужного числа игроков –
-            // минимальный вариант: 1 мафия + 1 шериф + остальные мирные
-            Collections.shuffle(list, rnd);
-            if (n == 0) return;
-            list.get(0).setRole(Role.MAFIA);
-            if (n > 1) {
-                list.get(1).setRole(Role.SHERIFF);
-            }
-            for (int i = 2; i < n; i++) {
-                list.get(i).setRole(Role.TOWN);
-            }
-            return;
-        }
-
-        Collections.shuffle(list, rnd);
-
-        // 2 мафии
-        list.get(0).setRole(Role.MAFIA);
-        if (n > 1) list.get(1).setRole(Role.MAFIA);
-
-        // 1 шериф
-        if (n > 2) list.get(2).setRole(Role.SHERIFF);
-
-        // 1 доктор
-        if (n > 3) list.get(3).setRole(Role.DOCTOR);
-
-        // остальные — мирные
-        for (int i = 4; i < n; i++) {
-            list.get(i).setRole(Role.TOWN);
+        Role[] roles = roleDistribution.deal(state.size(), rnd);
+        for (int i = 0; i < roles.length; i++) {
+            state.setRole(i, roles[i]);
         }
     }
 
     /** Простая запись обвинения в историю раундов. */
     public synchronized String accuse(long accuserId, long targetId) {
-        Player acc = players.get(accuserId);
-        Player tgt = players.get(targetId);
+        Player acc = find(accuserId);
+        Player tgt = find(targetId);
         if (acc == null || tgt == null) {
             return "Игрок не найден.";
         }
@@ -94,25 +101,94 @@ public class GameManager {
         Map<String, String> move =
                 Map.of(acc.getUsername(), "accuse " + tgt.getUsername());
         rounds.add(new Round(rounds.size() + 1, move));
+        modCount++;
 
         return acc.getUsername() + " подозревает " + tgt.getUsername();
     }
 
-    /** Убить игрока (пометить как выбывшего). */
+    /** Убить игрока (пометить как выбывшего). Ночью — убийство мафией, днём — казнь. */
     public synchronized void kill(long targetId) {
-        Player tgt = players.get(targetId);
+        Player tgt = find(targetId);
         if (tgt != null) {
-            tgt.setAlive(false);
+            markDead(tgt);
+            modCount++;
+            emit(phase == Phase.DAY ? GameEvent.execution(targetId) : GameEvent.nightKill(targetId));
         }
     }
 
     /** Количество живых игроков. */
     public synchronized int getAliveCount() {
-        int c = 0;
-        for (Player p : players.values()) {
-            if (p.isAlive()) c++;
+        return state.aliveCount();
+    }
+
+    // ==== Игроки: маски и индексы ====
+
+    private void addPlayer(Player p) {
+        int i = state.add(p);
+        tally.ensureCapacity(i + 1);
+        byUsername.putIfAbsent(normalize(p.getUsername()), p);
+        if (p.isAlive()) {
+            tally.addEligible(i);
         }
-        return c;
+    }
+
+    private void markDead(Player p) {
+        if (!p.isAlive()) return;
+        p.setAlive(false);
+        tally.removeEligible(p.index());
+    }
+
+    private Player find(long telegramId) {
+        int i = state.indexOf(telegramId);
+        return i >= 0 ? state.player(i) : null;
+    }
+
+    private Player at(int index) {
+        return index >= 0 ? state.player(index) : null;
+    }
+
+    private static String normalize(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /** Игрок по telegram id или null. */
+    public synchronized Player getPlayer(long telegramId) {
+        return find(telegramId);
+    }
+
+    /** Игрок по нику без учёта регистра (ведущий '@' не нужен) или null. */
+    public synchronized Player findByUsername(String username) {
+        return byUsername.get(normalize(username));
+    }
+
+    /** Живые игроки с ролью на момент вызова. */
+    public synchronized List<Player> getAliveWithRole(Role role) {
+        return state.aliveWithRole(role);
+    }
+
+    public synchronized int countAliveWithRole(Role role) {
+        return state.aliveCount(role);
+    }
+
+    /** Случайный живой игрок, кроме excludeId (0 — никого не исключать); null, если некого выбрать. */
+    public synchronized Player randomAlive(Random random, long excludeId) {
+        return at(state.randomAlive(random, state.indexOf(excludeId)));
+    }
+
+    /** Случайный живой игрок с ролью role, кроме excludeId; null, если таких нет. */
+    public synchronized Player randomAliveWithRole(Role role, Random random, long excludeId) {
+        return at(state.randomAliveWithRole(role, random, state.indexOf(excludeId)));
+    }
+
+    /** Случайный живой игрок с любой назначенной ролью, кроме role (и кроме excludeId); null, если таких нет. */
+    public synchronized Player randomAliveNotRole(Role role, Random random, long excludeId) {
+        return at(state.randomAliveNotRole(role, random, state.indexOf(excludeId)));
+    }
+
+    /** Голосовал ли уже игрок сегодня. */
+    public synchronized boolean hasDayVote(long voterId) {
+        int i = state.indexOf(voterId);
+        return i >= 0 && tally.hasVoted(i);
     }
 
     /**
@@ -120,8 +196,8 @@ public class GameManager {
      * voterId -> targetId
      */
     public synchronized String castDayVote(long voterId, long targetId) {
-        Player voter = players.get(voterId);
-        Player target = players.get(targetId);
+        Player voter = find(voterId);
+        Player target = find(targetId);
 
         if (voter == null || target == null) {
             return "Игрок не найден.";
@@ -133,18 +209,112 @@ public class GameManager {
             return "Нельзя голосовать за уже выбывшего игрока.";
         }
 
-        dayVotes.put(voterId, targetId);
+        tally.cast(voter.index(), target.index());
+        modCount++;
+        emit(GameEvent.vote(voterId, targetId));
         return voter.getUsername() + " голосует против " + target.getUsername();
     }
 
     /** Снимок голосов дня (voterId -> targetId). */
     public synchronized Map<Long, Long> getDayVotesSnapshot() {
-        return new HashMap<>(dayVotes);
+        Map<Long, Long> copy = new HashMap<>();
+        for (int i = 0; i < state.size(); i++) {
+            int t = tally.targetOf(i);
+            if (t >= 0) copy.put(state.id(i), state.id(t));
+        }
+        return copy;
+    }
+
+    // ==== Подсчёт голосов — без копирования и пересчёта ====
+
+    /** Лидер голосования; 0, если голосов нет или первое место делят несколько игроков. */
+    public synchronized long getDayLeaderId() {
+        int i = tally.leader();
+        return i >= 0 ? state.id(i) : 0L;
+    }
+
+    /** Вес голосов у лидера (или у каждого из делящих первое место). */
+    public synchronized int getDayLeaderVotes() {
+        return tally.leaderScore();
+    }
+
+    public synchronized boolean isDayVoteTied() {
+        return tally.isTied();
+    }
+
+    /** Вес голосов, поданных против игрока. */
+    public synchronized int getDayVotesAgainst(long targetId) {
+        int i = state.indexOf(targetId);
+        return i >= 0 ? tally.scoreOf(i) : 0;
+    }
+
+    /** Сколько живых игроков уже проголосовало. */
+    public synchronized int getDayVoterCount() {
+        return tally.voterCount();
+    }
+
+    /** У лидера больше половины веса голосов всех живых игроков. */
+    public synchronized boolean hasDayMajority() {
+        return tally.hasMajority();
+    }
+
+    /** Кто-нибудь из проголосовавших против targetId; 0, если таких нет. */
+    public synchronized long findVoterFor(long targetId) {
+        int t = state.indexOf(targetId);
+        if (t < 0) return 0L;
+        for (int i = 0; i < state.size(); i++) {
+            if (tally.targetOf(i) == t) {
+                return state.id(i);
+            }
+        }
+        return 0L;
+    }
+
+    /** Назначить вес голоса игрока (по умолчанию 1). */
+    public synchronized void setVoteWeight(long playerId, int weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("Vote weight must be non-negative: " + weight);
+        }
+        Player p = find(playerId);
+        if (p == null || tally.weightOf(p.index()) == weight) return;
+        tally.setWeight(p.index(), weight, p.isAlive());
+        modCount++;
+        emit(GameEvent.voteWeight(playerId, weight));
+    }
+
+    public synchronized int getVoteWeight(long playerId) {
+        int i = state.indexOf(playerId);
+        return i >= 0 ? tally.weightOf(i) : 1;
+    }
+
+    public synchronized RoleDistribution getRoleDistribution() {
+        return roleDistribution;
+    }
+
+    /** Задать доли ролей; действует при следующем старте игры. */
+    public synchronized void setRoleDistribution(RoleDistribution roleDistribution) {
+        if (this.roleDistribution.equals(roleDistribution)) return;
+        this.roleDistribution = roleDistribution;
+        modCount++;
+        emit(GameEvent.roleDistribution(roleDistribution));
+    }
+
+    public synchronized boolean isMajorityEndsDay() {
+        return majorityEndsDay;
+    }
+
+    public synchronized void setMajorityEndsDay(boolean majorityEndsDay) {
+        if (this.majorityEndsDay == majorityEndsDay) return;
+        this.majorityEndsDay = majorityEndsDay;
+        modCount++;
+        emit(GameEvent.majorityEndsDay(majorityEndsDay));
     }
 
     /** Очистить голоса после завершения дня. */
     public synchronized void clearDayVotes() {
-        dayVotes.clear();
+        tally.clear();
+        modCount++;
+        emit(GameEvent.votesCleared());
     }
 
     /**
@@ -158,37 +328,227 @@ public class GameManager {
         if (!started) return null;
         if (finished) return winner;
 
-        int mafiaAlive = 0;
-        int townAlive = 0;
-
-        for (Player p : players.values()) {
-            if (!p.isAlive() || p.getRole() == null) continue;
-
-            if (p.getRole() == Role.MAFIA) {
-                mafiaAlive++;
-            } else {
-                // TOWN, SHERIFF, DOCTOR
-                townAlive++;
-            }
-        }
+        // TOWN, SHERIFF, DOCTOR — на стороне мирных
+        int mafiaAlive = state.aliveCount(Role.MAFIA);
+        int townAlive = state.aliveCountNot(Role.MAFIA);
 
         if (mafiaAlive == 0 && (mafiaAlive + townAlive) > 0) {
             finished = true;
             winner = "TOWN";
             phase = Phase.FINISHED;
+            modCount++;
+            emit(GameEvent.gameOver(winner));
         } else if (mafiaAlive >= townAlive && mafiaAlive > 0) {
             finished = true;
             winner = "MAFIA";
             phase = Phase.FINISHED;
+            modCount++;
+            emit(GameEvent.gameOver(winner));
         }
 
         return winner;
     }
 
+    // ==== Журнал событий ====
+
+    public synchronized void setEventSink(GameEventSink eventSink) {
+        this.eventSink = eventSink;
+    }
+
+    public synchronized boolean hasEventSink() {
+        return eventSink != null;
+    }
+
+    /**
+     * Записать событие, не меняющее состояние (ход доктора, проверка шерифа).
+     */
+    public synchronized void record(GameEvent event) {
+        emit(event);
+    }
+
+    private void emit(GameEvent event) {
+        if (eventSink != null) {
+            eventSink.accept(event);
+        }
+    }
+
+    /**
+     * Восстановить игру, последовательно применив события из журнала.
+     * Роли берутся из событий ROLE_ASSIGNED, повторной раздачи нет; настройки чата
+     * (/majority, /setroles) — из MAJORITY_ENDS_DAY и ROLE_DISTRIBUTION.
+     */
+    public static GameManager replay(Iterable<GameEvent> events) {
+        GameManager gm = new GameManager();
+        for (GameEvent e : events) {
+            gm.apply(e);
+        }
+        return gm;
+    }
+
+    private void apply(GameEvent e) {
+        switch (e.type) {
+            case JOIN -> {
+                if (state.indexOf(e.actor) < 0) addPlayer(new Player(e.actor, e.payload));
+            }
+            case ROLE_ASSIGNED -> {
+                Player p = find(e.actor);
+                if (p != null) p.setRole(Role.valueOf(e.payload));
+            }
+            case NIGHT_KILL, EXECUTION -> {
+                Player p = find(e.target);
+                if (p != null) markDead(p);
+            }
+            case VOTE -> {
+                Player voter = find(e.actor);
+                Player target = find(e.target);
+                if (voter != null && target != null) tally.cast(voter.index(), target.index());
+            }
+            case VOTES_CLEARED -> tally.clear();
+            case VOTE_WEIGHT -> {
+                Player p = find(e.actor);
+                if (p != null) tally.setWeight(p.index(), Integer.parseInt(e.payload), p.isAlive());
+            }
+            case PHASE_CHANGE -> {
+                phase = Phase.valueOf(e.payload);
+                if (phase != Phase.LOBBY) started = true;
+            }
+            case GAME_OVER -> {
+                finished = true;
+                winner = e.payload;
+                phase = Phase.FINISHED;
+            }
+            case MAJORITY_ENDS_DAY -> majorityEndsDay = Boolean.parseBoolean(e.payload);
+            case ROLE_DISTRIBUTION -> roleDistribution = RoleDistribution.parse(e.payload, RoleDistribution.STANDARD);
+            case HEAL, CHECK -> { } // на состояние не влияют
+        }
+        modCount++;
+    }
+
+    // ==== Сериализация состояния (выгрузка сессии на диск) ====
+
+    /** Записать полное состояние игры в компактном бинарном виде. */
+    synchronized void writeState(DataOutput out) throws IOException {
+        out.writeInt(state.size());
+        for (Player p : state.players()) {
+            out.writeLong(p.getChatId());
+            out.writeUTF(p.getUsername());
+            out.writeByte(p.getRole() != null ? p.getRole().ordinal() : -1);
+            out.writeBoolean(p.isAlive());
+        }
+
+        out.writeInt(tally.voterCount());
+        for (int i = 0; i < state.size(); i++) {
+            int t = tally.targetOf(i);
+            if (t >= 0) {
+                out.writeLong(state.id(i));
+                out.writeLong(state.id(t));
+            }
+        }
+
+        out.writeBoolean(started);
+        out.writeBoolean(finished);
+        out.writeBoolean(winner != null);
+        if (winner != null) {
+            out.writeUTF(winner);
+        }
+        out.writeByte(phase.ordinal());
+
+        out.writeInt(rounds.size());
+        for (Round r : rounds) {
+            out.writeInt(r.getNumber());
+            out.writeInt(r.getMoves().size());
+            for (Map.Entry<String, String> m : r.getMoves().entrySet()) {
+                out.writeUTF(m.getKey());
+                out.writeUTF(m.getValue());
+            }
+        }
+
+        // с версии 2: правила голосования
+        int custom = 0;
+        for (int i = 0; i < state.size(); i++) {
+            if (tally.weightOf(i) != 1) custom++;
+        }
+        out.writeInt(custom);
+        for (int i = 0; i < state.size(); i++) {
+            if (tally.weightOf(i) != 1) {
+                out.writeLong(state.id(i));
+                out.writeInt(tally.weightOf(i));
+            }
+        }
+        out.writeBoolean(majorityEndsDay);
+
+        // с версии 3: доли ролей
+        out.writeDouble(roleDistribution.getMafiaRatio());
+        out.writeDouble(roleDistribution.getDoctorRatio());
+        out.writeDouble(roleDistribution.getSheriffRatio());
+    }
+
+    /**
+     * Восстановить состояние, записанное writeState().
+     * @param version версия формата GameSession; в версии 1 нет правил голосования,
+     *                в версиях 1–2 — долей ролей
+     */
+    static GameManager readState(DataInput in, int version) throws IOException {
+        GameManager gm = new GameManager();
+        Role[] roles = Role.values();
+
+        int playerCount = in.readInt();
+        for (int i = 0; i < playerCount; i++) {
+            Player p = new Player(in.readLong(), in.readUTF());
+            int role = in.readByte();
+            p.setRole(role >= 0 ? roles[role] : null);
+            p.setAlive(in.readBoolean());
+            gm.addPlayer(p);
+        }
+
+        int voteCount = in.readInt();
+        for (int i = 0; i < voteCount; i++) {
+            Player voter = gm.find(in.readLong());
+            Player target = gm.find(in.readLong());
+            if (voter != null && target != null) gm.tally.cast(voter.index(), target.index());
+        }
+
+        gm.started = in.readBoolean();
+        gm.finished = in.readBoolean();
+        gm.winner = in.readBoolean() ? in.readUTF() : null;
+        gm.phase = Phase.values()[in.readByte()];
+
+        int roundCount = in.readInt();
+        for (int i = 0; i < roundCount; i++) {
+            int number = in.readInt();
+            int moveCount = in.readInt();
+            Map<String, String> moves = new LinkedHashMap<>();
+            for (int j = 0; j < moveCount; j++) {
+                moves.put(in.readUTF(), in.readUTF());
+            }
+            gm.rounds.add(new Round(number, moves));
+        }
+
+        if (version >= 2) {
+            int weightCount = in.readInt();
+            for (int i = 0; i < weightCount; i++) {
+                long playerId = in.readLong();
+                int weight = in.readInt();
+                Player p = gm.find(playerId);
+                if (p != null) gm.tally.setWeight(p.index(), weight, p.isAlive());
+            }
+            gm.majorityEndsDay = in.readBoolean();
+        }
+        if (version >= 3) {
+            gm.roleDistribution = new RoleDistribution(in.readDouble(), in.readDouble(), in.readDouble());
+        }
+        return gm;
+    }
+
     // ==== Геттеры/сеттеры ====
 
+    /**
+     * Все игроки в порядке входа — живое представление без копирования.
+     * Обходить только в очереди чата (или в однопоточной симуляции); остальным
+     * читателям — snapshot().
+     */
     public synchronized Collection<Player> getPlayers() {
-        return players.values();
+        return state.players();
     }
 
     public synchronized List<Round> getRounds() {
@@ -213,5 +573,45 @@ public class GameManager {
 
     public synchronized void setPhase(Phase phase) {
         this.phase = phase;
+        modCount++;
+        emit(GameEvent.phaseChange(phase));
+    }
+
+    /** Растёт при каждом изменении состояния игры. */
+    public long getModCount() {
+        return modCount;
+    }
+
+    /** Версия состояния без блокировки: не изменилась — снимок и всё, что из него посчитано, актуальны. */
+    public long getVersion() {
+        return modCount;
+    }
+
+    /**
+     * Неизменяемый снимок текущей версии. Если снимок этой версии уже собран,
+     * возвращается он же без блокировки; иначе собирается один раз под блокировкой
+     * и публикуется для следующих читателей.
+     */
+    public GameSnapshot snapshot() {
+        GameSnapshot s = snapshot;
+        if (s != null && s.getVersion() == modCount) {
+            return s;
+        }
+        synchronized (this) {
+            s = snapshot;
+            if (s == null || s.getVersion() != modCount) {
+                s = buildSnapshot();
+                snapshot = s;
+            }
+            return s;
+        }
+    }
+
+    private GameSnapshot buildSnapshot() {
+        List<GameSnapshot.PlayerInfo> infos = new ArrayList<>(state.size());
+        for (Player p : state.players()) {
+            infos.add(new GameSnapshot.PlayerInfo(p.getChatId(), p.getUsername(), p.getRole(), p.isAlive()));
+        }
+        return new GameSnapshot(modCount, phase, started, finished, winner, infos, getDayVotesSnapshot());
     }
 }
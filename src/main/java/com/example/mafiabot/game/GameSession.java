@@ -1,12 +1,21 @@
 package com.example.mafiabot.game;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class GameSession {
     private final long chatId;
     private final long gameId;
     private final GameManager manager;
-    private final Map<Long, Long> telegramToUserId = new HashMap<>();
+    private final Map<Long, Long> telegramToUserId = new ConcurrentHashMap<>();
+
+    // версия привязок пользователей и версия, попавшая в последний checkpoint
+    private final AtomicLong mappingVersion = new AtomicLong();
+    private volatile long checkpointedVersion = -1;
 
     public GameSession(long chatId, long gameId, GameManager manager) {
         this.chatId = chatId;
@@ -19,10 +28,67 @@ public class GameSession {
     public GameManager getManager() { return manager; }
 
     public void putUserMapping(long telegramId, long dbUserId) {
-        telegramToUserId.put(telegramId, dbUserId);
+        Long prev = telegramToUserId.put(telegramId, dbUserId);
+        if (prev == null || prev != dbUserId) {
+            mappingVersion.incrementAndGet();
+        }
     }
 
     public Long getDbUserId(long telegramId) {
         return telegramToUserId.get(telegramId);
     }
+
+    /** Версия состояния сессии: меняется при любом изменении игры или привязок. */
+    public long stateVersion() {
+        return manager.getModCount() + mappingVersion.get();
+    }
+
+    /** Совпадает ли сохранённая копия с текущим состоянием. */
+    public boolean isCheckpointed() {
+        return checkpointedVersion == stateVersion();
+    }
+
+    public void markCheckpointed(long version) {
+        this.checkpointedVersion = version;
+    }
+
+    // ==== Бинарный формат для выгрузки на диск ====
+
+    // 2 — добавлены правила голосования (веса, досрочное окончание дня)
+    // 3 — доли ролей чата
+    private static final int FORMAT_VERSION = 3;
+
+    /** Записать сессию целиком: идентификаторы, привязки пользователей и состояние игры. */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        out.writeLong(chatId);
+        out.writeLong(gameId);
+        // putUserMapping может идти параллельно (поток выгрузки, ночной пул) —
+        // число и сами привязки берём из одной копии
+        Map<Long, Long> mappings = new HashMap<>(telegramToUserId);
+        out.writeInt(mappings.size());
+        for (Map.Entry<Long, Long> e : mappings.entrySet()) {
+            out.writeLong(e.getKey());
+            out.writeLong(e.getValue());
+        }
+        manager.writeState(out);
+    }
+
+    public static GameSession readFrom(DataInput in) throws IOException {
+        int version = in.readByte();
+        if (version < 1 || version > FORMAT_VERSION) {
+            throw new IOException("Unsupported session format version: " + version);
+        }
+        long chatId = in.readLong();
+        long gameId = in.readLong();
+        int mappings = in.readInt();
+        Map<Long, Long> users = new ConcurrentHashMap<>();
+        for (int i = 0; i < mappings; i++) {
+            users.put(in.readLong(), in.readLong());
+        }
+        GameSession s = new GameSession(chatId, gameId, GameManager.readState(in, version));
+        s.telegramToUserId.putAll(users);
+        s.markCheckpointed(s.stateVersion());
+        return s;
+    }
 }
@@ -0,0 +1,95 @@
+package com.example.mafiabot.game;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Неизменяемый снимок игры на определённой версии (GameManager.getVersion()).
+ *
+ * Снимок собирается под блокировкой игры один раз на версию и публикуется через
+ * volatile-ссылку (см. GameManager.snapshot()), поэтому читатели — /status,
+ * объяснения ИИ, голоса ботов — получают согласованное состояние без блокировок
+ * и не видят наполовину применённых изменений. Если версия не изменилась,
+ * возвращается тот же объект — его производные можно кешировать.
+ */
+public final class GameSnapshot {
+
+    /** Игрок на момент снимка. */
+    public static final class PlayerInfo {
+        private final long chatId;
+        private final String username;
+        private final Role role;
+        private final boolean alive;
+
+        PlayerInfo(long chatId, String username, Role role, boolean alive) {
+            this.chatId = chatId;
+            this.username = username;
+            this.role = role;
+            this.alive = alive;
+        }
+
+        public long getChatId() { return chatId; }
+        public String getUsername() { return username; }
+        public Role getRole() { return role; }
+        public boolean isAlive() { return alive; }
+
+        /** Бот (виртуальный игрок с отрицательным id). */
+        public boolean isBot() { return chatId < 0; }
+    }
+
+    private final long version;
+    private final Phase phase;
+    private final boolean started;
+    private final boolean finished;
+    private final String winner;
+    private final List<PlayerInfo> players;
+    private final List<String> aliveUsernames;
+    private final Map<Long, Long> dayVotes;
+
+    GameSnapshot(long version, Phase phase, boolean started, boolean finished, String winner,
+                 List<PlayerInfo> players, Map<Long, Long> dayVotes) {
+        this.version = version;
+        this.phase = phase;
+        this.started = started;
+        this.finished = finished;
+        this.winner = winner;
+        this.players = Collections.unmodifiableList(new ArrayList<>(players));
+        List<String> alive = new ArrayList<>();
+        for (PlayerInfo p : players) {
+            if (p.alive) alive.add(p.username);
+        }
+        this.aliveUsernames = Collections.unmodifiableList(alive);
+        this.dayVotes = Collections.unmodifiableMap(new HashMap<>(dayVotes));
+    }
+
+    public long getVersion() { return version; }
+    public Phase getPhase() { return phase; }
+    public boolean isStarted() { return started; }
+    public boolean isFinished() { return finished; }
+    public String getWinner() { return winner; }
+
+    /** Все игроки в порядке входа. */
+    public List<PlayerInfo> getPlayers() { return players; }
+
+    /** Ники живых игроков в порядке входа. */
+    public List<String> getAliveUsernames() { return aliveUsernames; }
+
+    public int getAliveCount() { return aliveUsernames.size(); }
+
+    public int getPlayerCount() { return players.size(); }
+
+    /** Дневные голоса: voterId -> targetId. */
+    public Map<Long, Long> getDayVotes() { return dayVotes; }
+
+    /** Сколько в снимке ботов. */
+    public int countBots() {
+        int n = 0;
+        for (PlayerInfo p : players) {
+            if (p.isBot()) n++;
+        }
+        return n;
+    }
+}
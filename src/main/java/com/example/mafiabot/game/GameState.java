@@ -0,0 +1,236 @@
+package com.example.mafiabot.game;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Компактное состояние игроков одной игры.
+ *
+ * Игрок получает плотный индекс 0..n-1 в порядке входа. «Жив» и «имеет роль R» —
+ * битовые маски по этим индексам (long[], 64 игрока на слово), так что подсчёты —
+ * это bitCount по словам, а случайный выбор кандидата — подсчёт и поиск k-го
+ * установленного бита, без списков и упаковки id. Player — лишь представление
+ * над этим состоянием (см. Player.attach).
+ *
+ * Не потокобезопасно — защищается блокировкой GameManager.
+ */
+final class GameState {
+
+    private static final Role[] ROLES = Role.values();
+    private static final byte NO_ROLE = -1;
+
+    /** Какие биты брать при подсчёте/выборе. */
+    private static final int ALIVE = 0;
+    private static final int WITH_ROLE = 1;
+    private static final int NOT_ROLE = 2;
+
+    private int size;
+    private long[] ids = new long[16];
+    private Player[] players = new Player[16];
+    private byte[] roles = new byte[16];
+    private long[] alive = new long[1];
+    private final long[][] roleMasks = new long[ROLES.length][1];
+    private final LongIntHashMap indexById = new LongIntHashMap();
+
+    private final List<Player> playerList = new AbstractList<>() {
+        @Override
+        public Player get(int i) {
+            if (i >= size) throw new IndexOutOfBoundsException(i);
+            return players[i];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    };
+
+    /**
+     * Добавить игрока (его текущие роль и «жив» переносятся в маски).
+     * @return плотный индекс
+     */
+    int add(Player p) {
+        int i = size;
+        if (i == ids.length) {
+            int cap = ids.length * 2;
+            ids = Arrays.copyOf(ids, cap);
+            players = Arrays.copyOf(players, cap);
+            roles = Arrays.copyOf(roles, cap);
+        }
+        int words = (i >> 6) + 1;
+        if (words > alive.length) {
+            alive = Arrays.copyOf(alive, words);
+            for (int r = 0; r < roleMasks.length; r++) {
+                roleMasks[r] = Arrays.copyOf(roleMasks[r], words);
+            }
+        }
+        Role role = p.getRole();
+        boolean isAlive = p.isAlive();
+
+        ids[i] = p.getChatId();
+        players[i] = p;
+        roles[i] = NO_ROLE;
+        indexById.put(p.getChatId(), i);
+        size++;
+
+        setAlive(i, isAlive);
+        setRole(i, role);
+        p.attach(this, i);
+        return i;
+    }
+
+    int size() { return size; }
+
+    /** Индекс игрока по id или -1. */
+    int indexOf(long id) { return indexById.get(id); }
+
+    long id(int i) { return ids[i]; }
+
+    Player player(int i) { return players[i]; }
+
+    /** Все игроки в порядке входа — представление без копирования. */
+    List<Player> players() { return playerList; }
+
+    boolean isAlive(int i) {
+        return (alive[i >> 6] & (1L << i)) != 0;
+    }
+
+    void setAlive(int i, boolean value) {
+        if (value) alive[i >> 6] |= 1L << i;
+        else alive[i >> 6] &= ~(1L << i);
+    }
+
+    Role role(int i) {
+        return roles[i] == NO_ROLE ? null : ROLES[roles[i]];
+    }
+
+    void setRole(int i, Role role) {
+        if (roles[i] != NO_ROLE) {
+            roleMasks[roles[i]][i >> 6] &= ~(1L << i);
+        }
+        roles[i] = role == null ? NO_ROLE : (byte) role.ordinal();
+        if (role != null) {
+            roleMasks[role.ordinal()][i >> 6] |= 1L << i;
+        }
+    }
+
+    // ==== Подсчёты и случайный выбор: проход по словам масок, без аллокаций ====
+
+    int aliveCount() {
+        return count(ALIVE, null, -1);
+    }
+
+    int aliveCount(Role role) {
+        return count(WITH_ROLE, role, -1);
+    }
+
+    /** Живые с назначенной ролью, кроме role. */
+    int aliveCountNot(Role role) {
+        return count(NOT_ROLE, role, -1);
+    }
+
+    /** Индекс случайного живого игрока, кроме exclude (-1 — никого); -1, если некого. */
+    int randomAlive(Random rnd, int exclude) {
+        return random(ALIVE, null, rnd, exclude);
+    }
+
+    int randomAliveWithRole(Role role, Random rnd, int exclude) {
+        return random(WITH_ROLE, role, rnd, exclude);
+    }
+
+    int randomAliveNotRole(Role role, Random rnd, int exclude) {
+        return random(NOT_ROLE, role, rnd, exclude);
+    }
+
+    private long word(int kind, Role role, int w) {
+        switch (kind) {
+            case WITH_ROLE:
+                return alive[w] & roleMasks[role.ordinal()][w];
+            case NOT_ROLE: {
+                long assigned = 0;
+                for (long[] m : roleMasks) assigned |= m[w];
+                return alive[w] & assigned & ~roleMasks[role.ordinal()][w];
+            }
+            default:
+                return alive[w];
+        }
+    }
+
+    private int count(int kind, Role role, int exclude) {
+        int n = 0;
+        for (int w = 0; w < alive.length; w++) {
+            n += Long.bitCount(word(kind, role, w));
+        }
+        if (exclude >= 0 && (word(kind, role, exclude >> 6) & (1L << exclude)) != 0) {
+            n--;
+        }
+        return n;
+    }
+
+    private int random(int kind, Role role, Random rnd, int exclude) {
+        int n = count(kind, role, exclude);
+        return n == 0 ? -1 : select(kind, role, rnd.nextInt(n), exclude);
+    }
+
+    private int select(int kind, Role role, int k, int exclude) {
+        for (int w = 0; w < alive.length; w++) {
+            long bits = word(kind, role, w);
+            if (exclude >= 0 && (exclude >> 6) == w) {
+                bits &= ~(1L << exclude);
+            }
+            int c = Long.bitCount(bits);
+            if (k < c) {
+                for (int j = 0; j < k; j++) {
+                    bits &= bits - 1; // снять младший бит
+                }
+                return (w << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            k -= c;
+        }
+        return -1;
+    }
+
+    /** Живые игроки с ролью на момент вызова — неизменяемый список. */
+    List<Player> aliveWithRole(Role role) {
+        long[] snapshot = new long[alive.length];
+        int n = 0;
+        for (int w = 0; w < alive.length; w++) {
+            snapshot[w] = word(WITH_ROLE, role, w);
+            n += Long.bitCount(snapshot[w]);
+        }
+        return new MaskList(snapshot, n);
+    }
+
+    /** Список игроков по снимку маски; get(i) — поиск i-го бита. */
+    private final class MaskList extends AbstractList<Player> {
+        private final long[] mask;
+        private final int n;
+
+        MaskList(long[] mask, int n) {
+            this.mask = mask;
+            this.n = n;
+        }
+
+        @Override
+        public Player get(int k) {
+            if (k < 0 || k >= n) throw new IndexOutOfBoundsException(k);
+            for (int w = 0; w < mask.length; w++) {
+                long bits = mask[w];
+                int c = Long.bitCount(bits);
+                if (k < c) {
+                    for (int j = 0; j < k; j++) bits &= bits - 1;
+                    return players[(w << 6) + Long.numberOfTrailingZeros(bits)];
+                }
+                k -= c;
+            }
+            throw new IndexOutOfBoundsException(k);
+        }
+
+        @Override
+        public int size() {
+            return n;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.mafiabot.game;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Таймер на «колесе»: один поток на все отложенные задачи.
+ *
+ * Колесо — кольцо из wheelSize корзин, стрелка сдвигается на одну корзину раз в tick.
+ * Задача кладётся в корзину своего срока и помнит, сколько полных оборотов ей ждать,
+ * так что постановка и отмена — O(1) независимо от числа ожидающих задач,
+ * а точность срабатывания — один tick. Подходит для десятков тысяч дедлайнов
+ * с точностью до долей секунды (таймеры фаз игры).
+ *
+ * Задачи выполняются в потоке таймера и должны быть короткими — например,
+ * просто переложить работу в другую очередь.
+ */
+public class HashedWheelTimer {
+
+    /** Отложенная задача. */
+    public interface Timeout {
+        /** @return true, если задача отменена до срабатывания */
+        boolean cancel();
+
+        boolean isCancelled();
+
+        boolean isExpired();
+    }
+
+    private static final int ST_WAITING = 0;
+    private static final int ST_CANCELLED = 1;
+    private static final int ST_EXPIRED = 2;
+
+    /** Сколько новых задач переносить в колесо за один tick — чтобы всплеск не задержал стрелку. */
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime = System.nanoTime();
+    private final Queue<Entry> pendingAdds = new ConcurrentLinkedQueue<>();
+    private final Queue<Entry> pendingCancels = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private volatile boolean stopped;
+    private long tick;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    /**
+     * @param tickDuration шаг стрелки (точность срабатывания)
+     * @param wheelSize    число корзин, округляется вверх до степени двойки
+     */
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int wheelSize) {
+        if (tickDuration <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("tickDuration and wheelSize must be positive");
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) size <<= 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.worker = new Thread(this::run, "wheel-timer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /** Выполнить task через delay. */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (stopped) {
+            throw new IllegalStateException("Timer is stopped");
+        }
+        Entry e = new Entry(task, System.nanoTime() - startTime + unit.toNanos(Math.max(0, delay)));
+        pending.incrementAndGet();
+        pendingAdds.add(e);
+        return e;
+    }
+
+    /** Сколько задач ждут срабатывания. */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    public long getExpiredCount() { return expired.get(); }
+    public long getCancelledCount() { return cancelled.get(); }
+
+    /** Остановить поток таймера; невыполненные задачи не запускаются. */
+    public void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (!stopped) {
+            try {
+                waitForNextTick();
+            } catch (InterruptedException e) {
+                return;
+            }
+            processCancels();
+            transferAdds();
+            wheel[(int) (tick & mask)].expire();
+            tick++;
+        }
+    }
+
+    private void waitForNextTick() throws InterruptedException {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long current = System.nanoTime() - startTime;
+            long sleepMillis = (deadline - current + 999_999) / 1_000_000;
+            if (sleepMillis <= 0) {
+                return;
+            }
+            Thread.sleep(sleepMillis);
+        }
+    }
+
+    private void processCancels() {
+        Entry e;
+        while ((e = pendingCancels.poll()) != null) {
+            if (e.bucket != null) {
+                e.bucket.remove(e);
+            }
+        }
+    }
+
+    private void transferAdds() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Entry e = pendingAdds.poll();
+            if (e == null) return;
+            if (e.state.get() == ST_CANCELLED) continue; // отменили до попадания в колесо
+
+            long calculated = e.deadline / tickNanos;
+            e.remainingRounds = (calculated - tick) / wheel.length;
+            long ticks = Math.max(calculated, tick); // просроченные — в текущую корзину
+            wheel[(int) (ticks & mask)].add(e);
+        }
+    }
+
+    private final class Entry implements Timeout {
+        final Runnable task;
+        final long deadline;
+        final AtomicInteger state = new AtomicInteger(ST_WAITING);
+        long remainingRounds;
+        Bucket bucket;
+        Entry prev;
+        Entry next;
+
+        Entry(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(ST_WAITING, ST_CANCELLED)) {
+                return false;
+            }
+            pending.decrementAndGet();
+            cancelled.incrementAndGet();
+            // из корзины убирает поток таймера — корзины без блокировок
+            pendingCancels.add(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state.get() == ST_CANCELLED;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return state.get() == ST_EXPIRED;
+        }
+
+        void expire() {
+            if (!state.compareAndSet(ST_WAITING, ST_EXPIRED)) {
+                return;
+            }
+            pending.decrementAndGet();
+            expired.incrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
+    }
+
+    /** Двусвязный список задач одной корзины; трогает только поток таймера. */
+    private static final class Bucket {
+        Entry head;
+        Entry tail;
+
+        void add(Entry e) {
+            e.bucket = this;
+            if (head == null) {
+                head = tail = e;
+            } else {
+                tail.next = e;
+                e.prev = tail;
+                tail = e;
+            }
+        }
+
+        void remove(Entry e) {
+            if (e.bucket != this) return;
+            if (e.prev != null) e.prev.next = e.next; else head = e.next;
+            if (e.next != null) e.next.prev = e.prev; else tail = e.prev;
+            e.prev = e.next = null;
+            e.bucket = null;
+        }
+
+        void expire() {
+            Entry e = head;
+            while (e != null) {
+                Entry next = e.next;
+                if (e.isCancelled()) {
+                    remove(e);
+                } else if (e.remainingRounds <= 0) {
+                    // срок наступил в пределах этого tick
+                    remove(e);
+                    e.expire();
+                } else {
+                    e.remainingRounds--;
+                }
+                e = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.mafiabot.game;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Дедлайны фаз: ночь и день каждой игры заканчиваются сами, если никто не набрал
+ * /ai_move или /endday.
+ *
+ * На чат — не больше одного дедлайна, на текущую фазу. После каждой команды
+ * GameController вызывает update(): сменилась фаза — старый дедлайн отменяется
+ * и ставится новый, игра закончилась — дедлайн снимается. Все дедлайны живут
+ * в одном HashedWheelTimer.
+ *
+ * Срабатывание не выполняет ход в потоке таймера, а ставит задачу в очередь чата
+ * (ChatExecutor), поэтому оно упорядочено с командами игроков. Если к этому моменту
+ * фаза уже закончилась, сработавший дедлайн просто игнорируется.
+ *
+ * Дедлайны не переживают перезапуск: у поднятой из checkpoint игры дедлайн
+ * появится после первой же команды в чате.
+ */
+public class PhaseTimers {
+
+    /** Выполняет задачу в очереди чата (см. ChatDispatcher.submit). */
+    @FunctionalInterface
+    public interface ChatExecutor {
+        void execute(long chatId, Runnable task);
+    }
+
+    /** Что делать, когда фаза вышла по времени. Вызывается в очереди чата. */
+    @FunctionalInterface
+    public interface DeadlineListener {
+        void onDeadline(long chatId, Phase phase) throws Exception;
+    }
+
+    private static final class Deadline {
+        final Phase phase;
+        final long dueAt;
+        HashedWheelTimer.Timeout timeout;
+
+        Deadline(Phase phase, long dueAt) {
+            this.phase = phase;
+            this.dueAt = dueAt;
+        }
+    }
+
+    private final HashedWheelTimer timer;
+    private final long nightNanos;
+    private final long dayNanos;
+    private final Map<Long, Deadline> deadlines = new ConcurrentHashMap<>();
+
+    private volatile ChatExecutor executor;
+    private volatile DeadlineListener listener;
+
+    /**
+     * @param night длительность ночи (0 — без ограничения)
+     * @param day   длительность дня (0 — без ограничения)
+     */
+    public PhaseTimers(HashedWheelTimer timer, long night, long day, TimeUnit unit) {
+        this.timer = timer;
+        this.nightNanos = unit.toNanos(night);
+        this.dayNanos = unit.toNanos(day);
+    }
+
+    /** Подключить исполнителя и обработчик; до этого дедлайны не ставятся. */
+    public void start(ChatExecutor executor, DeadlineListener listener) {
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    /**
+     * Привести дедлайн чата в соответствие с текущей фазой игры.
+     * Вызывается из очереди чата после каждой команды.
+     */
+    public void update(long chatId, GameManager gm) {
+        if (executor == null) return;
+
+        Phase phase = gm.getPhase();
+        boolean running = gm.isStarted() && !gm.isFinished();
+        long duration = phase == Phase.NIGHT ? nightNanos : phase == Phase.DAY ? dayNanos : 0;
+
+        Deadline current = deadlines.get(chatId);
+        if (!running || duration <= 0) {
+            if (current != null) {
+                cancel(chatId, current);
+            }
+            return;
+        }
+        if (current != null && current.phase == phase) {
+            return; // та же фаза — дедлайн уже стоит (или уже сработал и ждёт в очереди чата)
+        }
+        if (current != null) {
+            cancel(chatId, current);
+        }
+
+        Deadline d = new Deadline(phase, System.nanoTime() + duration);
+        deadlines.put(chatId, d);
+        d.timeout = timer.schedule(() -> executor.execute(chatId, () -> fire(chatId, d)),
+                duration, TimeUnit.NANOSECONDS);
+    }
+
+    /** Снять дедлайн чата (например, при /newgame до старта). */
+    public void cancel(long chatId) {
+        Deadline d = deadlines.get(chatId);
+        if (d != null) {
+            cancel(chatId, d);
+        }
+    }
+
+    private void cancel(long chatId, Deadline d) {
+        d.timeout.cancel();
+        deadlines.remove(chatId, d);
+    }
+
+    private void fire(long chatId, Deadline d) {
+        // за время ожидания в очереди фазу могли завершить командой
+        if (!deadlines.remove(chatId, d)) return;
+        try {
+            listener.onDeadline(chatId, d.phase);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Сколько секунд осталось до конца фазы; -1, если дедлайна нет. */
+    public long getSecondsLeft(long chatId) {
+        Deadline d = deadlines.get(chatId);
+        if (d == null) return -1;
+        return Math.max(0, TimeUnit.NANOSECONDS.toSeconds(d.dueAt - System.nanoTime()));
+    }
+
+    /** Сколько дедлайнов сейчас ждут. */
+    public int size() {
+        return deadlines.size();
+    }
+}
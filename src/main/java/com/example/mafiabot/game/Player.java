@@ -1,16 +1,36 @@
 package com.example.mafiabot.game;
 
+/**
+ * Игрок. Пока игрок не добавлен в игру, роль и «жив» хранятся в нём самом;
+ * после добавления это представление над GameState игры. Роль и «жив» меняет только
+ * GameManager (сеттеры видны лишь пакету), чтобы обновлялись голоса, счётчики,
+ * снимок и журнал событий.
+ */
 public class Player {
     private final long chatId;      // telegram id пользователя (или виртуальный id для ИИ)
     private final String username;
     private Role role;
     private boolean alive = true;
 
+    private GameState state;
+    private int index = -1;
+
     public Player(long chatId, String username) {
         this.chatId = chatId;
         this.username = username;
     }
 
+    /** Привязать к состоянию игры; вызывается GameState.add. */
+    void attach(GameState state, int index) {
+        this.state = state;
+        this.index = index;
+    }
+
+    /** Плотный индекс в игре или -1, если игрок ещё не в игре. */
+    int index() {
+        return index;
+    }
+
     public long getChatId() {
         return chatId;
     }
@@ -20,18 +40,20 @@ public class Player {
     }
 
     public Role getRole() {
-        return role;
+        return state != null ? state.role(index) : role;
     }
 
-    public void setRole(Role role) {
-        this.role = role;
+    void setRole(Role role) {
+        if (state != null) state.setRole(index, role);
+        else this.role = role;
     }
 
     public boolean isAlive() {
-        return alive;
+        return state != null ? state.isAlive(index) : alive;
     }
 
-    public void setAlive(boolean alive) {
-        this.alive = alive;
+    void setAlive(boolean alive) {
+        if (state != null) state.setAlive(index, alive);
+        else this.alive = alive;
     }
 }
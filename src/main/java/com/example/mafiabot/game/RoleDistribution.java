@@ -0,0 +1,144 @@
+package com.example.mafiabot.game;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Правила раздачи ролей: доли мафии, докторов и шерифов от размера лобби.
+ *
+ * Каждой активной роли достаётся хотя бы один игрок, мафии всегда меньше половины,
+ * остальные — мирные. Раздача — один проход: массив ролей нужной длины
+ * перемешивается Фишером–Йетсом, i-й игрок получает i-ю роль.
+ *
+ * Неизменяемый; настраивается на чат через /setroles.
+ */
+public final class RoleDistribution {
+
+    public static final int MIN_PLAYERS = 5;
+    public static final int MAX_PLAYERS = 500;
+
+    /** Классика: на 7 игроках даёт 2 мафии, шерифа, доктора и 3 мирных. */
+    public static final RoleDistribution STANDARD = new RoleDistribution(0.25, 0.1, 0.1);
+
+    private final double mafiaRatio;
+    private final double doctorRatio;
+    private final double sheriffRatio;
+
+    public RoleDistribution(double mafiaRatio, double doctorRatio, double sheriffRatio) {
+        if (!(mafiaRatio > 0 && mafiaRatio < 0.5)) {
+            throw new IllegalArgumentException("Доля мафии должна быть больше 0 и меньше 0.5");
+        }
+        if (!(doctorRatio >= 0 && sheriffRatio >= 0) || mafiaRatio + doctorRatio + sheriffRatio >= 1) {
+            throw new IllegalArgumentException("Доли доктора и шерифа должны быть неотрицательными, а сумма всех долей — меньше 1");
+        }
+        this.mafiaRatio = mafiaRatio;
+        this.doctorRatio = doctorRatio;
+        this.sheriffRatio = sheriffRatio;
+    }
+
+    public double getMafiaRatio() { return mafiaRatio; }
+    public double getDoctorRatio() { return doctorRatio; }
+    public double getSheriffRatio() { return sheriffRatio; }
+
+    /** Сколько игроков каждой роли будет в лобби из n человек. */
+    public Map<Role, Integer> countsFor(int n) {
+        Map<Role, Integer> counts = new EnumMap<>(Role.class);
+        int mafia = Math.min(atLeastOne(n, mafiaRatio), (n - 1) / 2);
+        int doctors = doctorRatio > 0 ? atLeastOne(n, doctorRatio) : 0;
+        int sheriffs = sheriffRatio > 0 ? atLeastOne(n, sheriffRatio) : 0;
+        // на маленьком лобби особые роли не должны съесть всех мирных
+        while (mafia + doctors + sheriffs >= n && (doctors > 0 || sheriffs > 0)) {
+            if (doctors >= sheriffs) doctors--; else sheriffs--;
+        }
+        counts.put(Role.MAFIA, mafia);
+        counts.put(Role.DOCTOR, doctors);
+        counts.put(Role.SHERIFF, sheriffs);
+        counts.put(Role.TOWN, n - mafia - doctors - sheriffs);
+        return counts;
+    }
+
+    private static int atLeastOne(int n, double ratio) {
+        return Math.max(1, (int) Math.round(n * ratio));
+    }
+
+    /** Роли для n игроков в случайном порядке. O(n). */
+    public Role[] deal(int n, Random rnd) {
+        Role[] roles = new Role[n];
+        int i = 0;
+        for (Map.Entry<Role, Integer> e : countsFor(n).entrySet()) {
+            for (int k = 0; k < e.getValue(); k++) {
+                roles[i++] = e.getKey();
+            }
+        }
+        for (int j = n - 1; j > 0; j--) {
+            int k = rnd.nextInt(j + 1);
+            Role tmp = roles[j];
+            roles[j] = roles[k];
+            roles[k] = tmp;
+        }
+        return roles;
+    }
+
+    /** Человекочитаемый состав, например «2 мафии, 1 доктор, 1 шериф, 3 мирных». */
+    public String describe(int n) {
+        Map<Role, Integer> c = countsFor(n);
+        return c.get(Role.MAFIA) + " мафии, " +
+                c.get(Role.DOCTOR) + " доктор(ов), " +
+                c.get(Role.SHERIFF) + " шериф(ов), " +
+                c.get(Role.TOWN) + " мирных";
+    }
+
+    /**
+     * Разобрать строку вида «mafia=0.3 doctor=0.1 sheriff=0.05».
+     * Не указанные доли берутся из base.
+     */
+    public static RoleDistribution parse(String spec, RoleDistribution base) {
+        double mafia = base.mafiaRatio;
+        double doctor = base.doctorRatio;
+        double sheriff = base.sheriffRatio;
+        for (String part : spec.trim().split("\\s+")) {
+            if (part.isEmpty()) continue;
+            int eq = part.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Ожидается роль=доля, получено: " + part);
+            }
+            String key = part.substring(0, eq).toLowerCase(Locale.ROOT);
+            double value;
+            try {
+                value = Double.parseDouble(part.substring(eq + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Некорректная доля: " + part);
+            }
+            switch (key) {
+                case "mafia" -> mafia = value;
+                case "doctor" -> doctor = value;
+                case "sheriff" -> sheriff = value;
+                default -> throw new IllegalArgumentException("Неизвестная роль: " + key);
+            }
+        }
+        return new RoleDistribution(mafia, doctor, sheriff);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RoleDistribution other)) return false;
+        return Double.compare(mafiaRatio, other.mafiaRatio) == 0
+                && Double.compare(doctorRatio, other.doctorRatio) == 0
+                && Double.compare(sheriffRatio, other.sheriffRatio) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(mafiaRatio, doctorRatio, sheriffRatio);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "mafia=%.2f doctor=%.2f sheriff=%.2f",
+                mafiaRatio, doctorRatio, sheriffRatio);
+    }
+}
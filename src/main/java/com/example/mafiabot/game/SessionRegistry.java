@@ -0,0 +1,316 @@
+package com.example.mafiabot.game;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Потокобезопасный реестр игровых сессий: chatId → GameSession.
+ *
+ * У каждого чата свой слот со своей блокировкой. Создание и замена сессии идут
+ * под блокировкой слота, поэтому два одновременных /join в новом чате создадут
+ * ровно одну запись в games, а обработчики разных чатов друг друга не ждут.
+ * Чтение уже созданной сессии идёт без блокировок.
+ *
+ * Если задан SessionStore, реестр ограничен по размеру: сессии, к которым
+ * не обращались дольше idleTtl, а также самые давние при превышении maxResident,
+ * выгружаются в хранилище и поднимаются обратно при следующей команде из этого чата.
+ * Тот же механизм поднимает игры после перезапуска процесса: при старте ничего
+ * не загружается, сессия чата читается из хранилища при первом обращении.
+ * Поднятой сессии сразу ставится дедлайн фазы (если заданы PhaseTimers): иначе
+ * после перезапуска ночь или день не закончились бы сами до следующей команды.
+ */
+public class SessionRegistry {
+
+    /** Создаёт новую сессию (как правило, вместе со строкой в games). */
+    @FunctionalInterface
+    public interface SessionFactory {
+        GameSession create(long chatId) throws Exception;
+    }
+
+    /** Заменяет сессию чата; old может быть null. */
+    @FunctionalInterface
+    public interface SessionReplacer {
+        GameSession replace(GameSession old) throws Exception;
+    }
+
+    /**
+     * Сессию, к которой обращались позже этого, не выгружаем даже при превышении лимита:
+     * ссылку на неё может держать обработчик команды, который ещё не закончил работу.
+     */
+    private static final long MIN_IDLE_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private static class Slot {
+        final long chatId;
+        volatile GameSession session;
+        volatile long lastAccess = System.nanoTime();
+        /** Слот удалён из map — взявший его поток должен взять новый. */
+        boolean removed;
+
+        Slot(long chatId) {
+            this.chatId = chatId;
+        }
+    }
+
+    private final Map<Long, Slot> slots = new ConcurrentHashMap<>();
+    private final SessionStore store;
+    private final int maxResident;
+    private final long idleTtlNanos;
+    private final ScheduledExecutorService sweeper;
+    private final PhaseTimers phaseTimers;
+
+    private final AtomicInteger resident = new AtomicInteger();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong spillFailures = new AtomicLong();
+    private final AtomicLong checkpoints = new AtomicLong();
+
+    /** Реестр без выгрузки: все сессии живут в памяти. */
+    public SessionRegistry() {
+        this.store = null;
+        this.maxResident = Integer.MAX_VALUE;
+        this.idleTtlNanos = Long.MAX_VALUE;
+        this.sweeper = null;
+        this.phaseTimers = null;
+    }
+
+    /**
+     * @param store       куда выгружать сессии
+     * @param maxResident сколько сессий держать в памяти
+     * @param idleTtl     через сколько простоя сессия выгружается
+     */
+    public SessionRegistry(SessionStore store, int maxResident, long idleTtl, TimeUnit unit) {
+        this(store, maxResident, idleTtl, unit, null);
+    }
+
+    /**
+     * @param phaseTimers кому сообщать о сессиях, поднятых из хранилища (null — никому)
+     */
+    public SessionRegistry(SessionStore store, int maxResident, long idleTtl, TimeUnit unit,
+                           PhaseTimers phaseTimers) {
+        this.store = store;
+        this.phaseTimers = phaseTimers;
+        this.maxResident = maxResident;
+        this.idleTtlNanos = unit.toNanos(idleTtl);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(idleTtlNanos) / 2);
+        sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.SECONDS);
+    }
+
+    /** Текущая сессия чата (при необходимости — загруженная с диска) или null. */
+    public GameSession get(long chatId) throws Exception {
+        Slot slot = slots.get(chatId);
+        if (slot != null) {
+            GameSession s = slot.session;
+            if (s != null) {
+                slot.lastAccess = System.nanoTime();
+                return s;
+            }
+        }
+        if (store == null) {
+            return null;
+        }
+        return getOrCreate(chatId, null);
+    }
+
+    /**
+     * Вернуть сессию чата: из памяти, с диска или, если нет нигде, создать ровно одну.
+     * factory == null — не создавать, вернуть null.
+     */
+    public GameSession getOrCreate(long chatId, SessionFactory factory) throws Exception {
+        while (true) {
+            // computeIfAbsent создаёт только пустой слот — без I/O под блокировкой map
+            Slot slot = slots.computeIfAbsent(chatId, Slot::new);
+            slot.lastAccess = System.nanoTime();
+            GameSession s = slot.session;
+            if (s != null) {
+                return s;
+            }
+            synchronized (slot) {
+                if (slot.removed) continue;
+                s = slot.session;
+                if (s == null) {
+                    s = loadFromStore(chatId);
+                    boolean reloaded = s != null;
+                    if (s == null && factory != null) {
+                        s = factory.create(chatId);
+                    }
+                    if (s != null) {
+                        install(slot, s);
+                    }
+                    if (reloaded && phaseTimers != null) {
+                        phaseTimers.update(chatId, s.getManager());
+                    }
+                }
+                return s;
+            }
+        }
+    }
+
+    /** Атомарно заменить сессию чата (например, для /newgame). */
+    public GameSession replace(long chatId, SessionReplacer replacer) throws Exception {
+        while (true) {
+            Slot slot = slots.computeIfAbsent(chatId, Slot::new);
+            slot.lastAccess = System.nanoTime();
+            synchronized (slot) {
+                if (slot.removed) continue;
+                return replaceLocked(slot, replacer);
+            }
+        }
+    }
+
+    private GameSession replaceLocked(Slot slot, SessionReplacer replacer) throws Exception {
+        GameSession old = slot.session;
+        if (old == null) {
+            old = loadFromStore(slot.chatId);
+        }
+        GameSession s = replacer.replace(old);
+        if (slot.session == null) {
+            install(slot, s);
+        } else {
+            slot.session = s;
+        }
+        return s;
+    }
+
+    /**
+     * Сохранить сессию в хранилище, если она изменилась с прошлого сохранения.
+     * Без хранилища ничего не делает. Идёт под блокировкой слота, как и выгрузка
+     * в evict, — иначе две записи одного чата могли бы обогнать друг друга.
+     */
+    public void checkpoint(GameSession session) throws Exception {
+        if (store == null) return;
+        Slot slot = slots.get(session.getChatId());
+        if (slot == null) {
+            // слот уже выгружен (evict сохранил сессию) или сессия не из реестра
+            save(session);
+            return;
+        }
+        synchronized (slot) {
+            save(session);
+        }
+    }
+
+    private void save(GameSession session) throws Exception {
+        long version = session.stateVersion();
+        if (session.isCheckpointed()) return;
+        store.save(session);
+        session.markCheckpointed(version);
+        checkpoints.incrementAndGet();
+    }
+
+    private GameSession loadFromStore(long chatId) throws Exception {
+        if (store == null) return null;
+        GameSession s = store.load(chatId);
+        if (s != null) {
+            reloads.incrementAndGet();
+        }
+        return s;
+    }
+
+    private void install(Slot slot, GameSession s) {
+        slot.session = s;
+        if (resident.incrementAndGet() > maxResident && sweeper != null) {
+            sweeper.execute(this::sweep);
+        }
+    }
+
+    /**
+     * Выгрузить простаивающие сессии, а при превышении лимита — ещё и самые давние.
+     */
+    void sweep() {
+        try {
+            long now = System.nanoTime();
+            List<Slot> candidates = new ArrayList<>();
+            for (Slot slot : slots.values()) {
+                if (slot.session == null) {
+                    removeEmpty(slot);
+                    continue;
+                }
+                long idle = now - slot.lastAccess;
+                if (idle >= idleTtlNanos) {
+                    evict(slot, idleTtlNanos);
+                } else if (idle >= MIN_IDLE_NANOS) {
+                    candidates.add(slot);
+                }
+            }
+
+            int excess = resident.get() - maxResident;
+            if (excess > 0) {
+                candidates.sort(Comparator.comparingLong(s -> s.lastAccess));
+                for (int i = 0; i < candidates.size() && excess > 0; i++) {
+                    if (evict(candidates.get(i), MIN_IDLE_NANOS)) {
+                        excess--;
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    private boolean evict(Slot slot, long minIdleNanos) {
+        synchronized (slot) {
+            GameSession s = slot.session;
+            // за время обхода к сессии могли обратиться
+            if (s == null || System.nanoTime() - slot.lastAccess < minIdleNanos) {
+                return false;
+            }
+            try {
+                // уже сохранённую копию повторно не пишем
+                if (!s.isCheckpointed()) {
+                    long version = s.stateVersion();
+                    store.save(s);
+                    s.markCheckpointed(version);
+                }
+            } catch (Exception e) {
+                spillFailures.incrementAndGet();
+                System.err.println("Не удалось выгрузить сессию чата " + slot.chatId + ": " + e.getMessage());
+                return false;
+            }
+            slot.session = null;
+            slot.removed = true;
+            slots.remove(slot.chatId, slot);
+            resident.decrementAndGet();
+            evictions.incrementAndGet();
+            return true;
+        }
+    }
+
+    /** Убрать слот, оставшийся от запроса к чату без сессии. */
+    private void removeEmpty(Slot slot) {
+        synchronized (slot) {
+            if (slot.session == null && !slot.removed) {
+                slot.removed = true;
+                slots.remove(slot.chatId, slot);
+            }
+        }
+    }
+
+    /** Сколько сессий сейчас в памяти. */
+    public int size() {
+        return resident.get();
+    }
+
+    public long getEvictionCount() { return evictions.get(); }
+    public long getReloadCount() { return reloads.get(); }
+    public long getSpillFailureCount() { return spillFailures.get(); }
+    public long getCheckpointCount() { return checkpoints.get(); }
+
+    public void shutdown() {
+        if (sweeper != null) {
+            sweeper.shutdown();
+        }
+    }
+}
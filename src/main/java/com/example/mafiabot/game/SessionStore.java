@@ -0,0 +1,16 @@
+package com.example.mafiabot.game;
+
+import java.io.IOException;
+
+/**
+ * Хранилище выгруженных из памяти сессий.
+ */
+public interface SessionStore {
+
+    void save(GameSession session) throws IOException;
+
+    /** Загрузить сессию чата или вернуть null, если сохранённой нет. */
+    GameSession load(long chatId) throws IOException;
+
+    void delete(long chatId) throws IOException;
+}
@@ -0,0 +1,187 @@
+package com.example.mafiabot.game;
+
+import java.util.Arrays;
+
+/**
+ * Живой подсчёт дневных голосов по плотным индексам игроков (см. GameState).
+ *
+ * Каждый голос, его смена или отзыв (например, голосующий погиб) меняют счёт
+ * одной цели, поэтому лидер, ничья и явка доступны сразу, без пересчёта голосов.
+ * Цели сгруппированы по набранному весу: для каждого значения веса храним, сколько целей
+ * его набрали, и сумму их индексов — если цель одна, сумма и есть её индекс.
+ * Всё состояние — примитивные массивы, без упаковки.
+ *
+ * Голос весит столько, сколько назначено голосующему (по умолчанию 1); вес
+ * фиксируется в момент голосования. Не потокобезопасен — защищается блокировкой GameManager.
+ */
+class VoteTally {
+
+    private static final int NONE = -1;
+
+    // по голосующему: за кого (индекс или NONE) и с каким весом
+    private int[] voteOf = new int[0];
+    private int[] ballotWeight = new int[0];
+    // по игроку: назначенный вес голоса и набранный против него вес
+    private int[] weight = new int[0];
+    private int[] score = new int[0];
+    // по значению веса: сколько целей его набрали и сумма их индексов
+    private int[] bucketTargets = new int[8];
+    private long[] bucketIndexSum = new long[8];
+
+    private int maxScore;
+    private int voters;
+    private int castWeight;
+    private int eligibleWeight;
+
+    /** Подготовить место под игроков с индексами меньше n. */
+    void ensureCapacity(int n) {
+        if (n <= voteOf.length) return;
+        int cap = Math.max(n, voteOf.length * 2);
+        int old = voteOf.length;
+        voteOf = Arrays.copyOf(voteOf, cap);
+        ballotWeight = Arrays.copyOf(ballotWeight, cap);
+        weight = Arrays.copyOf(weight, cap);
+        score = Arrays.copyOf(score, cap);
+        Arrays.fill(voteOf, old, cap, NONE);
+        Arrays.fill(weight, old, cap, 1);
+    }
+
+    /** Голос voter против target; повторный голос заменяет прежний. */
+    void cast(int voter, int target) {
+        int old = voteOf[voter];
+        if (old == target) return;
+        if (old != NONE) {
+            move(old, -ballotWeight[voter]);
+            castWeight -= ballotWeight[voter];
+        } else {
+            voters++;
+        }
+        int w = weight[voter];
+        voteOf[voter] = target;
+        ballotWeight[voter] = w;
+        castWeight += w;
+        move(target, w);
+    }
+
+    /** Отозвать голос voter, если он был. */
+    void retract(int voter) {
+        int old = voteOf[voter];
+        if (old == NONE) return;
+        voteOf[voter] = NONE;
+        voters--;
+        castWeight -= ballotWeight[voter];
+        move(old, -ballotWeight[voter]);
+    }
+
+    /** Игрок получил право голоса (вошёл в игру живым). */
+    void addEligible(int player) {
+        eligibleWeight += weight[player];
+    }
+
+    /** Игрок выбыл: его голос снимается, вес больше не учитывается в большинстве. */
+    void removeEligible(int player) {
+        eligibleWeight -= weight[player];
+        retract(player);
+    }
+
+    /** Назначить вес голоса игрока. Уже поданный голос пересчитывается с новым весом. */
+    void setWeight(int player, int w, boolean eligible) {
+        int old = weight[player];
+        weight[player] = w;
+        if (eligible) {
+            eligibleWeight += w - old;
+        }
+        int target = voteOf[player];
+        if (target != NONE && ballotWeight[player] != w) {
+            retract(player);
+            cast(player, target);
+        }
+    }
+
+    int weightOf(int player) {
+        return weight[player];
+    }
+
+    /** Снять все голоса (веса игроков сохраняются). */
+    void clear() {
+        Arrays.fill(voteOf, NONE);
+        Arrays.fill(score, 0);
+        Arrays.fill(bucketTargets, 0);
+        Arrays.fill(bucketIndexSum, 0);
+        maxScore = 0;
+        voters = 0;
+        castWeight = 0;
+    }
+
+    private void move(int target, int delta) {
+        int from = score[target];
+        int to = from + delta;
+        if (from > 0) {
+            bucketTargets[from]--;
+            bucketIndexSum[from] -= target;
+        }
+        score[target] = Math.max(0, to);
+        if (to > 0) {
+            if (to >= bucketTargets.length) {
+                int cap = Math.max(to + 1, bucketTargets.length * 2);
+                bucketTargets = Arrays.copyOf(bucketTargets, cap);
+                bucketIndexSum = Arrays.copyOf(bucketIndexSum, cap);
+            }
+            bucketTargets[to]++;
+            bucketIndexSum[to] += target;
+        }
+        if (to > maxScore) {
+            maxScore = to;
+        } else {
+            // максимум мог только уменьшиться, и не больше чем на delta
+            while (maxScore > 0 && bucketTargets[maxScore] == 0) maxScore--;
+        }
+    }
+
+    // ==== Запросы — все O(1) ====
+
+    /** Индекс цели с наибольшим весом голосов; -1, если голосов нет или ничья. */
+    int leader() {
+        if (maxScore == 0 || bucketTargets[maxScore] != 1) return NONE;
+        return (int) bucketIndexSum[maxScore];
+    }
+
+    int leaderScore() {
+        return maxScore;
+    }
+
+    /** Несколько целей делят первое место. */
+    boolean isTied() {
+        return maxScore > 0 && bucketTargets[maxScore] > 1;
+    }
+
+    /** Лидер набрал больше половины веса всех живых игроков. */
+    boolean hasMajority() {
+        return leader() != NONE && 2L * maxScore > eligibleWeight;
+    }
+
+    int scoreOf(int target) {
+        return score[target];
+    }
+
+    boolean hasVoted(int voter) {
+        return voteOf[voter] != NONE;
+    }
+
+    /** За кого голосует voter; -1, если не голосовал. */
+    int targetOf(int voter) {
+        return voteOf[voter];
+    }
+
+    int voterCount() {
+        return voters;
+    }
+
+    int castWeight() {
+        return castWeight;
+    }
+
+    int eligibleWeight() {
+        return eligibleWeight;
+    }
+}
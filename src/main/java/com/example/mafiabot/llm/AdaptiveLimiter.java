@@ -0,0 +1,93 @@
+package com.example.mafiabot.llm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Адаптивный предел одновременных запросов (AIMD).
+ *
+ * Пока ответы приходят вовремя, предел растёт примерно на единицу за «поколение»
+ * запросов (+1/limit за каждый успешный); на перегрузку — 429, таймаут, ответ дольше
+ * targetLatency — предел делится пополам. Запрос сверх предела не ждёт, а сразу
+ * отклоняется: вызывающий отдаёт запасной ответ.
+ *
+ * Потокобезопасен; все методы короткие и синхронизированы.
+ */
+public class AdaptiveLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetNanos;
+
+    private double limit;
+    private int inFlight;
+
+    private long rejected;
+    private long increases;
+    private long decreases;
+
+    /**
+     * @param initialLimit  стартовый предел
+     * @param targetLatency ответ дольше считается признаком перегрузки
+     */
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, long targetLatency, TimeUnit unit) {
+        if (minLimit <= 0 || minLimit > maxLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Expected 0 < minLimit <= initialLimit <= maxLimit");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetNanos = unit.toNanos(targetLatency);
+        this.limit = initialLimit;
+    }
+
+    /** Занять слот; true обязывает вернуть его через onSuccess/onDropped/onIgnore. */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            rejected++;
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /** Запрос выполнен за nanos: вовремя — предел растёт, медленно — уменьшается. */
+    public synchronized void onSuccess(long nanos) {
+        inFlight--;
+        if (nanos > targetNanos) {
+            decrease();
+        } else {
+            int before = (int) limit;
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+            if ((int) limit > before) increases++;
+        }
+    }
+
+    /** Признак перегрузки (429, таймаут): предел пополам. */
+    public synchronized void onDropped() {
+        inFlight--;
+        decrease();
+    }
+
+    /** Запрос завершился, но о нагрузке ничего не говорит (например, отменён). */
+    public synchronized void onIgnore() {
+        inFlight--;
+    }
+
+    private void decrease() {
+        int before = (int) limit;
+        limit = Math.max(minLimit, limit / 2);
+        if ((int) limit < before) decreases++;
+    }
+
+    public synchronized int getLimit() { return (int) limit; }
+    public synchronized int getInFlight() { return inFlight; }
+    public synchronized long getRejectedCount() { return rejected; }
+
+    @Override
+    public synchronized String toString() {
+        return "limit=" + (int) limit +
+                " inFlight=" + inFlight +
+                " rejected=" + rejected +
+                " increases=" + increases +
+                " decreases=" + decreases;
+    }
+}
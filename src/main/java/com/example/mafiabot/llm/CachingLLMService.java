@@ -0,0 +1,246 @@
+package com.example.mafiabot.llm;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Кеш ответов LLM по нормализованному тексту запроса.
+ *
+ * Запросы ИИ очень похожи друг на друга (та же роль, тот же список живых, та же цель),
+ * поэтому повторный запрос отдаётся из кеша без похода в сеть. Ключ — текст без
+ * лишних пробелов и без учёта регистра. Кеш ограничен по размеру (вытесняется давно
+ * не использованный запрос) и по времени жизни записи.
+ *
+ * Чтобы объяснения не повторялись слово в слово, на ключ можно копить несколько
+ * вариантов ответа: пока их меньше variants, запрос идёт к LLM и ответ добавляется,
+ * потом отдаётся случайный из накопленных.
+ *
+ * Одинаковые запросы, пришедшие одновременно, ждут один вызов LLM (single-flight).
+ *
+ * Хранятся только настоящие ответы: отказ delegate (исключение или null на месте
+ * элемента пачки) передаётся вызывающему как есть, и следующий такой же запрос снова
+ * идёт к LLM. Заглушку подставляет FallbackLLMService над кешем.
+ */
+public class CachingLLMService implements LLMService {
+
+    private static final class Entry {
+        final List<String> variants = new ArrayList<>();
+        final long createdAt;
+        // вариантов набралось достаточно (или LLM начала повторяться)
+        boolean complete;
+
+        Entry(long createdAt) {
+            this.createdAt = createdAt;
+        }
+    }
+
+    private final LLMService delegate;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final int variants;
+
+    // LRU: порядок доступа, самый старый вытесняется при переполнении
+    private final Map<String, Entry> cache;
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    /**
+     * @param maxEntries сколько разных запросов держать
+     * @param ttl        время жизни записи (считается от первого ответа)
+     * @param variants   сколько разных ответов копить на запрос (1 — всегда один и тот же)
+     */
+    public CachingLLMService(LLMService delegate, int maxEntries, long ttl, TimeUnit unit, int variants) {
+        if (maxEntries <= 0 || ttl <= 0 || variants <= 0) {
+            throw new IllegalArgumentException("maxEntries, ttl and variants must be positive");
+        }
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.variants = variants;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > CachingLLMService.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public String generateResponse(String context) {
+        try {
+            return generateResponseAsync(context).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> generateResponseAsync(String context) {
+        return generate(context, null);
+    }
+
+    /** Ответ из кеша приходит в onText сразу целиком, промах — потоком от delegate. */
+    @Override
+    public CompletableFuture<String> generateResponseStreaming(String context, Consumer<String> onText) {
+        return generate(context, onText);
+    }
+
+    /** @param onText null — обычный запрос, иначе потоковый */
+    private CompletableFuture<String> generate(String context, Consumer<String> onText) {
+        String key = normalize(context);
+
+        String cached = lookup(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            if (onText != null) onText.accept(cached);
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            // такой же запрос уже в пути — ждём его ответ
+            coalesced.incrementAndGet();
+            // отмена ожидающего не отменяет общий запрос
+            return running.thenApply(r -> {
+                if (onText != null) onText.accept(r);
+                return r;
+            });
+        }
+
+        misses.incrementAndGet();
+        CompletableFuture<String> upstream;
+        try {
+            upstream = onText != null
+                    ? delegate.generateResponseStreaming(context, onText)
+                    : delegate.generateResponseAsync(context);
+        } catch (RuntimeException e) {
+            upstream = CompletableFuture.failedFuture(e);
+        }
+        upstream.whenComplete((response, error) -> {
+            if (error == null) store(key, response);
+            // сначала убрать из inFlight: иначе запрос, пришедший сразу за ответом,
+            // присоединится к уже завершённому (возможно, отказом) вызову
+            inFlight.remove(key, mine);
+            if (error == null) {
+                mine.complete(response);
+            } else {
+                mine.completeExceptionally(error);
+            }
+        });
+        return mine.thenApply(r -> r);
+    }
+
+    /** Попадания отдаются из кеша, промахи уходят в delegate одной пачкой. */
+    @Override
+    public List<String> generateBatch(List<String> contexts) {
+        try {
+            return generateBatchAsync(contexts).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<String>> generateBatchAsync(List<String> contexts) {
+        List<String> result = new ArrayList<>(contexts.size());
+        List<Integer> missing = new ArrayList<>();
+        List<String> missingContexts = new ArrayList<>();
+        for (int i = 0; i < contexts.size(); i++) {
+            String cached = lookup(normalize(contexts.get(i)));
+            if (cached != null) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+                missing.add(i);
+                missingContexts.add(contexts.get(i));
+            }
+            result.add(cached);
+        }
+        if (missingContexts.isEmpty()) return CompletableFuture.completedFuture(result);
+
+        return delegate.generateBatchAsync(missingContexts).thenApply(fresh -> {
+            for (int k = 0; k < missing.size(); k++) {
+                store(normalize(missingContexts.get(k)), fresh.get(k));
+                result.set(missing.get(k), fresh.get(k));
+            }
+            return result;
+        });
+    }
+
+    /** Ответ из кеша или null, если записи нет, она устарела или вариантов ещё мало. */
+    private synchronized String lookup(String key) {
+        Entry e = cache.get(key);
+        if (e == null) return null;
+        if (System.nanoTime() - e.createdAt > ttlNanos) {
+            cache.remove(key);
+            expirations.incrementAndGet();
+            return null;
+        }
+        if (!e.complete) return null;
+        return e.variants.get(ThreadLocalRandom.current().nextInt(e.variants.size()));
+    }
+
+    private synchronized void store(String key, String response) {
+        if (response == null || response.isBlank()) return;
+        Entry e = cache.get(key);
+        if (e == null) {
+            e = new Entry(System.nanoTime());
+            cache.put(key, e);
+        }
+        if (e.complete) return;
+        if (e.variants.contains(response)) {
+            // LLM повторилась — новых вариантов, скорее всего, не будет
+            e.complete = true;
+        } else {
+            e.variants.add(response);
+            e.complete = e.variants.size() >= variants;
+        }
+    }
+
+    static String normalize(String context) {
+        if (context == null) return "";
+        return context.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    public long getHitCount() { return hits.get(); }
+    public long getMissCount() { return misses.get(); }
+    public long getCoalescedCount() { return coalesced.get(); }
+    public long getEvictionCount() { return evictions.get(); }
+    public long getExpirationCount() { return expirations.get(); }
+
+    @Override
+    public String getStats() {
+        String own = "LLM-кеш: size=" + size() +
+                " hits=" + hits.get() +
+                " misses=" + misses.get() +
+                " coalesced=" + coalesced.get() +
+                " evicted=" + evictions.get() +
+                " expired=" + expirations.get();
+        String inner = delegate.getStats();
+        return inner != null ? own + "\n" + inner : own;
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.mafiabot.llm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Предохранитель для внешнего сервиса (OpenAI).
+ *
+ * CLOSED — запросы идут; по последним window вызовам считается доля ошибок и доля
+ * медленных ответов. Как только одна из них достигает порога (и вызовов набралось
+ * не меньше minCalls), предохранитель размыкается.
+ * OPEN — запросы сразу отклоняются (вызывающий отдаёт запасной ответ), пока
+ * не пройдёт openDuration.
+ * HALF_OPEN — пропускается probes пробных запросов: все успешны и быстры —
+ * снова CLOSED, хоть один неудачен — опять OPEN.
+ *
+ * Потокобезопасен; все методы короткие и синхронизированы.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int window;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final double slowRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int probes;
+
+    // кольцо результатов последних вызовов: 0 — успех, 1 — ошибка, 2 — медленный успех
+    private final byte[] outcomes;
+    private int position;
+    private int recorded;
+    private int failures;
+    private int slow;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int probesStarted;
+    private int probesSucceeded;
+
+    private long rejected;
+    private long opened;
+
+    /**
+     * @param window               сколько последних вызовов учитывать
+     * @param minCalls             меньше вызовов в окне — не размыкаться
+     * @param failureRateThreshold доля ошибок для размыкания (0..1)
+     * @param slowCall             ответ дольше — «медленный»
+     * @param slowRateThreshold    доля медленных ответов для размыкания (0..1)
+     * @param openDuration         сколько держать разомкнутым до пробных запросов
+     * @param probes               сколько пробных запросов в HALF_OPEN
+     */
+    public CircuitBreaker(int window, int minCalls, double failureRateThreshold,
+                          long slowCall, double slowRateThreshold,
+                          long openDuration, TimeUnit unit, int probes) {
+        if (window <= 0 || minCalls <= 0 || minCalls > window || probes <= 0) {
+            throw new IllegalArgumentException("window, minCalls and probes must be positive, minCalls <= window");
+        }
+        this.window = window;
+        this.minCalls = minCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowRateThreshold = slowRateThreshold;
+        this.slowCallNanos = unit.toNanos(slowCall);
+        this.openNanos = unit.toNanos(openDuration);
+        this.probes = probes;
+        this.outcomes = new byte[window];
+    }
+
+    /** Можно ли выполнить вызов. true обязывает сообщить результат через onSuccess/onFailure/onIgnore. */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                rejected++;
+                return false;
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesStarted >= probes) {
+                rejected++;
+                return false;
+            }
+            probesStarted++;
+        }
+        return true;
+    }
+
+    /** Вызов завершился успешно за nanos. */
+    public synchronized void onSuccess(long nanos) {
+        boolean isSlow = nanos >= slowCallNanos;
+        if (state == State.HALF_OPEN) {
+            if (isSlow) {
+                open();
+            } else if (++probesSucceeded >= probes) {
+                transition(State.CLOSED);
+            }
+            return;
+        }
+        record(isSlow ? (byte) 2 : (byte) 0);
+    }
+
+    /** Вызов завершился ошибкой (сеть, таймаут, 429, 5xx). */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        record((byte) 1);
+    }
+
+    /** Вызов не дал сведений о здоровье сервиса (например, отменён) — освободить пробный слот. */
+    public synchronized void onIgnore() {
+        if (state == State.HALF_OPEN && probesStarted > probesSucceeded) {
+            probesStarted--;
+        }
+    }
+
+    private void record(byte outcome) {
+        if (state != State.CLOSED) return; // опоздавший ответ, отправленный до размыкания
+        if (recorded == window) {
+            byte old = outcomes[position];
+            if (old == 1) failures--;
+            if (old == 2) slow--;
+        } else {
+            recorded++;
+        }
+        outcomes[position] = outcome;
+        position = (position + 1) % window;
+        if (outcome == 1) failures++;
+        if (outcome == 2) slow++;
+
+        if (recorded >= minCalls &&
+                ((double) failures / recorded >= failureRateThreshold
+                        || (double) slow / recorded >= slowRateThreshold)) {
+            open();
+        }
+    }
+
+    private void open() {
+        opened++;
+        openedAt = System.nanoTime();
+        transition(State.OPEN);
+    }
+
+    private void transition(State next) {
+        if (state == next) return;
+        System.out.println("LLM circuit breaker: " + state + " -> " + next);
+        state = next;
+        probesStarted = 0;
+        probesSucceeded = 0;
+        if (next == State.CLOSED) {
+            // после восстановления окно начинается заново
+            position = 0;
+            recorded = 0;
+            failures = 0;
+            slow = 0;
+        }
+    }
+
+    public synchronized State getState() { return state; }
+    public synchronized long getRejectedCount() { return rejected; }
+    public synchronized long getOpenedCount() { return opened; }
+
+    @Override
+    public synchronized String toString() {
+        return "breaker=" + state +
+                " opened=" + opened +
+                " rejected=" + rejected +
+                " window=" + recorded + " failures=" + failures + " slow=" + slow;
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.mafiabot.llm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Откат на LocalLLMStub, когда LLM не ответила.
+ *
+ * Ставится над кешем: сервисы ниже сообщают об отказе исключением
+ * (LLMUnavailableException) или null на месте элемента пачки, поэтому в кеш попадают
+ * только настоящие ответы и после восстановления OpenAI запросы снова идут к ней.
+ * Здесь отказ превращается в ответ заглушки с пометкой, почему объяснение локальное, —
+ * вызывающий код всегда получает текст.
+ */
+public class FallbackLLMService implements LLMService {
+
+    private final LLMService delegate;
+    private final LLMService stub = new LocalLLMStub();
+
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    public FallbackLLMService(LLMService delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String generateResponse(String context) {
+        try {
+            return delegate.generateResponse(context);
+        } catch (RuntimeException e) {
+            return fallback(context, e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> generateResponseAsync(String context) {
+        CompletableFuture<String> upstream;
+        try {
+            upstream = delegate.generateResponseAsync(context);
+        } catch (RuntimeException e) {
+            return CompletableFuture.completedFuture(fallback(context, e));
+        }
+        return upstream.exceptionally(e -> fallback(context, e));
+    }
+
+    /** При отказе onText не вызывается: заглушка приходит только окончательным ответом. */
+    @Override
+    public CompletableFuture<String> generateResponseStreaming(String context, Consumer<String> onText) {
+        CompletableFuture<String> upstream;
+        try {
+            upstream = delegate.generateResponseStreaming(context, onText);
+        } catch (RuntimeException e) {
+            return CompletableFuture.completedFuture(fallback(context, e));
+        }
+        return upstream.exceptionally(e -> fallback(context, e));
+    }
+
+    @Override
+    public List<String> generateBatch(List<String> contexts) {
+        List<String> answers;
+        try {
+            answers = delegate.generateBatch(contexts);
+        } catch (RuntimeException e) {
+            return fallbackAll(contexts, e);
+        }
+        return fillMissing(contexts, answers);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> generateBatchAsync(List<String> contexts) {
+        CompletableFuture<List<String>> upstream;
+        try {
+            upstream = delegate.generateBatchAsync(contexts);
+        } catch (RuntimeException e) {
+            return CompletableFuture.completedFuture(fallbackAll(contexts, e));
+        }
+        return upstream.handle((answers, e) -> e != null ? fallbackAll(contexts, e) : fillMissing(contexts, answers));
+    }
+
+    /** null на месте элементов, на которые LLM не ответила, — ответ заглушки. */
+    private List<String> fillMissing(List<String> contexts, List<String> answers) {
+        List<String> result = new ArrayList<>(contexts.size());
+        for (int i = 0; i < contexts.size(); i++) {
+            String answer = answers != null && i < answers.size() ? answers.get(i) : null;
+            if (answer == null) {
+                fallbacks.incrementAndGet();
+                answer = stub.generateResponse(contexts.get(i)) + " (LLM ответила в неожиданном формате)";
+            }
+            result.add(answer);
+        }
+        return result;
+    }
+
+    private List<String> fallbackAll(List<String> contexts, Throwable error) {
+        List<String> result = new ArrayList<>(contexts.size());
+        for (String context : contexts) {
+            result.add(fallback(context, error));
+        }
+        return result;
+    }
+
+    private String fallback(String context, Throwable error) {
+        fallbacks.incrementAndGet();
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        String reason;
+        if (cause instanceof LLMUnavailableException) {
+            reason = cause.getMessage();
+        } else {
+            // не отказ LLM, а ошибка в нашем коде — её стоит видеть в логе
+            cause.printStackTrace();
+            reason = "исключение при обращении к LLM: " + cause.getMessage();
+        }
+        return stub.generateResponse(context) + " (" + reason + ")";
+    }
+
+    /** Сколько ответов выдано заглушкой вместо LLM. */
+    public long getFallbackCount() { return fallbacks.get(); }
+
+    @Override
+    public String getStats() {
+        String own = "LLM-заглушка: ответов=" + fallbacks.get();
+        String inner = delegate.getStats();
+        return inner != null ? inner + "\n" + own : own;
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.mafiabot.llm;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Когда отправлять запасной («хеджирующий») запрос.
+ *
+ * Помним длительности последних успешных ответов; если первый запрос идёт дольше
+ * заданного перцентиля (например, p90), отправляется второй такой же, и берётся
+ * тот ответ, что пришёл раньше. Так редкие «хвостовые» задержки upstream почти
+ * не видны пользователю ценой ~(1 - p) лишних запросов.
+ *
+ * Пока ответов мало, задержка хеджа — initialDelay; всегда в пределах [minDelay, maxDelay].
+ */
+public class HedgePolicy {
+
+    private static final int SAMPLES = 128;
+    private static final int MIN_SAMPLES = 20;
+
+    private final double percentile;
+    private final long initialNanos;
+    private final long minNanos;
+    private final long maxNanos;
+
+    private final long[] samples = new long[SAMPLES];
+    private int count;
+    private int position;
+    private long cachedDelay = -1; // пересчитывается при новых замерах
+
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    /**
+     * @param percentile перцентиль задержки, после которого уходит второй запрос (0..1)
+     */
+    public HedgePolicy(double percentile, long initialDelay, long minDelay, long maxDelay, TimeUnit unit) {
+        if (!(percentile > 0 && percentile < 1) || minDelay < 0 || minDelay > maxDelay) {
+            throw new IllegalArgumentException("Expected 0 < percentile < 1 and 0 <= minDelay <= maxDelay");
+        }
+        this.percentile = percentile;
+        this.initialNanos = unit.toNanos(initialDelay);
+        this.minNanos = unit.toNanos(minDelay);
+        this.maxNanos = unit.toNanos(maxDelay);
+    }
+
+    /** Через сколько после первого запроса отправлять второй. */
+    public synchronized long delayNanos() {
+        if (cachedDelay < 0) {
+            long raw;
+            if (count < MIN_SAMPLES) {
+                raw = initialNanos;
+            } else {
+                long[] sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                raw = sorted[Math.min(count - 1, (int) Math.ceil(percentile * count) - 1)];
+            }
+            cachedDelay = Math.max(minNanos, Math.min(maxNanos, raw));
+        }
+        return cachedDelay;
+    }
+
+    /** Успешный ответ за nanos. */
+    public synchronized void record(long nanos) {
+        samples[position] = nanos;
+        position = (position + 1) % SAMPLES;
+        if (count < SAMPLES) count++;
+        cachedDelay = -1;
+    }
+
+    void onHedge() { hedged.incrementAndGet(); }
+    void onHedgeWin() { hedgeWins.incrementAndGet(); }
+
+    public long getHedgedCount() { return hedged.get(); }
+    public long getHedgeWinCount() { return hedgeWins.get(); }
+
+    @Override
+    public String toString() {
+        return "hedgeAfter=" + TimeUnit.NANOSECONDS.toMillis(delayNanos()) + "ms" +
+                " hedged=" + hedged.get() +
+                " hedgeWins=" + hedgeWins.get();
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.mafiabot.llm;
+
+import okhttp3.OkHttpClient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Нагрузочный прогон OpenAiLLMService из командной строки:
+ *
+ *   LLMBenchmark [запросов] [одновременно] [single|stream|batch]
+ *
+ * Печатает пропускную способность, перцентили задержки, сколько ответов пришло
+ * от API, а сколько — заглушкой, и счётчики предохранителя, предела и хеджирования.
+ * Без OPENAI_BASE_URL поднимает встроенный MockOpenAiServer с отказами из MOCK_*,
+ * так что прогон воспроизводим и не требует сети. Клиент настраивается теми же
+ * LLM_*, что и бот.
+ */
+public class LLMBenchmark {
+
+    private static final int BATCH_SIZE = 4;
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        String mode = args.length > 2 ? args[2] : "single";
+
+        MockOpenAiServer mock = null;
+        String baseUrl = System.getenv("OPENAI_BASE_URL");
+        if (baseUrl == null || baseUrl.isBlank()) {
+            MockOpenAiServer.Faults faults = MockOpenAiServer.Faults.fromEnv();
+            mock = new MockOpenAiServer(0, "/v1", faults);
+            mock.start();
+            baseUrl = "http://127.0.0.1:" + mock.getPort() + "/v1";
+            System.out.println("Mock OpenAI: " + faults);
+        }
+
+        int maxConnections = Integer.parseInt(System.getenv().getOrDefault("LLM_MAX_CONNECTIONS", "16"));
+        long slowCallMs = Long.parseLong(System.getenv().getOrDefault("LLM_SLOW_CALL_MS", "8000"));
+        double hedgePercentile = Double.parseDouble(System.getenv().getOrDefault("LLM_HEDGE_PERCENTILE", "0.9"));
+        OkHttpClient http = OpenAiLLMService.httpClient(
+                maxConnections,
+                Long.parseLong(System.getenv().getOrDefault("LLM_KEEP_ALIVE_SECONDS", "300")),
+                Boolean.parseBoolean(System.getenv().getOrDefault("LLM_HTTP2", "true")),
+                Long.parseLong(System.getenv().getOrDefault("LLM_CONNECT_TIMEOUT_MS", "3000")),
+                Long.parseLong(System.getenv().getOrDefault("LLM_CALL_TIMEOUT_MS", "15000")));
+        CircuitBreaker breaker = new CircuitBreaker(20, 10, 0.5,
+                slowCallMs, 0.8, 30_000, TimeUnit.MILLISECONDS, 3);
+        AdaptiveLimiter limiter = new AdaptiveLimiter(Math.min(8, maxConnections), 1, maxConnections,
+                slowCallMs, TimeUnit.MILLISECONDS);
+        HedgePolicy hedge = hedgePercentile > 0
+                ? new HedgePolicy(hedgePercentile, 2000, 200, slowCallMs, TimeUnit.MILLISECONDS)
+                : null;
+        OpenAiLLMService llm = new OpenAiLLMService(
+                System.getenv().getOrDefault("OPENAI_API_KEY", "mock"), "gpt-4o-mini", http,
+                breaker, limiter, hedge, null, baseUrl);
+
+        System.out.println("Benchmark: " + requests + " " + mode + " requests, " + concurrency +
+                " concurrent, " + baseUrl);
+
+        long[] latencies = new long[requests];
+        AtomicLong answered = new AtomicLong();
+        AtomicLong fallbacks = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        Semaphore slots = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(requests);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            slots.acquire();
+            int id = i;
+            List<String> contexts = new ArrayList<>();
+            for (int k = 0; k < (mode.equals("batch") ? BATCH_SIZE : 1); k++) {
+                contexts.add("Ты играешь в мафию. Запрос " + id + "." + k + "\n" +
+                        "Кратко объясни, почему ты голосуешь против игрока bot" + (id % 7) + ".");
+            }
+            long sentAt = System.nanoTime();
+            CompletableFuture<List<String>> f = switch (mode) {
+                case "stream" -> llm.generateResponseStreaming(contexts.get(0), partial -> { }).thenApply(List::of);
+                case "batch" -> llm.generateBatchAsync(contexts);
+                default -> llm.generateResponseAsync(contexts.get(0)).thenApply(List::of);
+            };
+            f.whenComplete((answers, error) -> {
+                latencies[id] = System.nanoTime() - sentAt;
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                if (cause instanceof LLMUnavailableException) {
+                    // отказ OpenAI, предохранителя или предела: у бота — заглушка на всю пачку
+                    fallbacks.addAndGet(contexts.size());
+                } else if (cause != null) {
+                    failed.incrementAndGet();
+                } else {
+                    for (String answer : answers) {
+                        // null в пачке — элемент не разобран, у бота был бы ответ заглушки
+                        if (answer == null) {
+                            fallbacks.incrementAndGet();
+                        } else {
+                            answered.incrementAndGet();
+                        }
+                    }
+                }
+                slots.release();
+                done.countDown();
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        double seconds = elapsed / 1e9;
+        System.out.printf("Done in %.2f s: %.1f req/s%n", seconds, requests / seconds);
+        System.out.println("Latency ms: p50=" + ms(percentile(latencies, 0.50)) +
+                " p90=" + ms(percentile(latencies, 0.90)) +
+                " p99=" + ms(percentile(latencies, 0.99)) +
+                " max=" + ms(latencies[latencies.length - 1]));
+        System.out.println("Answers: api=" + answered.get() + " fallback=" + fallbacks.get() +
+                " failed=" + failed.get());
+        System.out.println(llm.getStats());
+        if (mock != null) {
+            System.out.println(mock);
+            mock.stop();
+        }
+        http.dispatcher().executorService().shutdown();
+        http.connectionPool().evictAll();
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private static long ms(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.mafiabot.llm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Параллельные запросы к LLM с общим дедлайном.
+ *
+ * Пачка контекстов (например, объяснения голосов всех ботов за день) режется на
+ * куски по batchSize, каждый кусок — один вызов generateBatchAsync (у OpenAI — один
+ * HTTP-запрос на весь кусок). Куски отправляются сразу, не больше parallelism
+ * запросов одновременно на весь процесс; потоки на ожидание сети не тратятся.
+ * Каждый ответ ждём до общего дедлайна пачки: кто не успел или упал — получает
+ * текст запасного сервиса (LocalLLMStub). Так пачка занимает примерно один вызов LLM,
+ * а не сумму вызовов.
+ *
+ * Опоздавший запрос не отменяется: через кеш его ответ могут ждать и другие, и отменить
+ * отсюда можно только зависимый future, а не HTTP-вызов. Слот parallelism остаётся
+ * занят, пока запрос действительно не завершится, — иначе по дедлайнам к OpenAI
+ * уходило бы больше parallelism вызовов сразу.
+ */
+public class LLMFanOut {
+
+    private final LLMService primary;
+    private final LLMService fallback;
+    private final Semaphore permits;
+    private final long timeoutNanos;
+    private final int batchSize;
+
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public LLMFanOut(LLMService primary, LLMService fallback, int parallelism, long timeout, TimeUnit unit) {
+        this(primary, fallback, parallelism, timeout, unit, 1);
+    }
+
+    /**
+     * @param parallelism сколько запросов к primary выполняется одновременно
+     * @param timeout     общий дедлайн одной пачки
+     * @param batchSize   сколько контекстов отправлять одним запросом (1 — по одному)
+     */
+    public LLMFanOut(LLMService primary, LLMService fallback, int parallelism, long timeout, TimeUnit unit,
+                     int batchSize) {
+        if (parallelism <= 0 || timeout <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("parallelism, timeout and batchSize must be positive");
+        }
+        this.primary = primary;
+        this.fallback = fallback;
+        this.permits = new Semaphore(parallelism);
+        this.timeoutNanos = unit.toNanos(timeout);
+        this.batchSize = batchSize;
+    }
+
+    /** Ответы в том же порядке, что и контексты. */
+    public List<String> generateAll(List<String> contexts) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        List<CompletableFuture<List<String>>> futures = new ArrayList<>();
+        for (int from = 0; from < contexts.size(); from += batchSize) {
+            futures.add(submit(contexts.subList(from, Math.min(from + batchSize, contexts.size())), deadline));
+        }
+
+        List<String> results = new ArrayList<>(contexts.size());
+        for (int c = 0; c < futures.size(); c++) {
+            CompletableFuture<List<String>> f = futures.get(c);
+            List<String> chunkResult;
+            try {
+                chunkResult = f.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                timedOut.incrementAndGet();
+                chunkResult = null;
+            } catch (ExecutionException e) {
+                failed.incrementAndGet();
+                if (e.getCause() instanceof LLMUnavailableException) {
+                    System.err.println("LLM unavailable: " + e.getCause().getMessage());
+                } else {
+                    e.getCause().printStackTrace();
+                }
+                chunkResult = null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                chunkResult = null;
+            }
+            int from = c * batchSize;
+            int to = Math.min(from + batchSize, contexts.size());
+            for (int i = from; i < to; i++) {
+                String result = chunkResult != null && i - from < chunkResult.size() ? chunkResult.get(i - from) : null;
+                results.add(result != null ? result : fallback.generateResponse(contexts.get(i)));
+            }
+        }
+        return results;
+    }
+
+    /** Отправить кусок, дождавшись свободного слота, но не дольше дедлайна. */
+    private CompletableFuture<List<String>> submit(List<String> chunk, long deadline) {
+        try {
+            if (!permits.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return new CompletableFuture<>(); // слот так и не освободился — уйдёт в заглушку по дедлайну
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new CompletableFuture<>();
+        }
+        CompletableFuture<List<String>> f;
+        try {
+            f = chunk.size() == 1
+                    ? primary.generateResponseAsync(chunk.get(0)).thenApply(List::of)
+                    : primary.generateBatchAsync(chunk);
+        } catch (RuntimeException e) {
+            f = CompletableFuture.failedFuture(e);
+        }
+        // слот освобождается по завершении запроса, а не когда его перестали ждать
+        f.whenComplete((r, e) -> permits.release());
+        return f;
+    }
+
+    /** Сколько запросов (кусков пачки) не успели к дедлайну. */
+    public long getTimedOutCount() { return timedOut.get(); }
+
+    /** Сколько запросов упали с исключением. */
+    public long getFailedCount() { return failed.get(); }
+}
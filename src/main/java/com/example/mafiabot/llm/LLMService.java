@@ -1,5 +1,91 @@
 package com.example.mafiabot.llm;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
 public interface LLMService {
     String generateResponse(String context);
+
+    /**
+     * Ответы на несколько независимых контекстов, в том же порядке.
+     * По умолчанию — по одному запросу на контекст; сервисы, умеющие отвечать
+     * пачкой за один запрос, переопределяют. null на месте элемента — на него
+     * LLM не ответила (остальные ответы пачки при этом годятся).
+     */
+    default List<String> generateBatch(List<String> contexts) {
+        List<String> result = new ArrayList<>(contexts.size());
+        for (String context : contexts) {
+            result.add(generateResponse(context));
+        }
+        return result;
+    }
+
+    /**
+     * Асинхронный вариант generateResponse. По умолчанию выполняется сразу в вызывающем
+     * потоке (подходит для локальных сервисов); сетевые сервисы переопределяют,
+     * чтобы не держать поток на вводе-выводе.
+     */
+    default CompletableFuture<String> generateResponseAsync(String context) {
+        try {
+            return CompletableFuture.completedFuture(generateResponse(context));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /** Асинхронный вариант generateBatch; по умолчанию — как generateResponseAsync. */
+    default CompletableFuture<List<String>> generateBatchAsync(List<String> contexts) {
+        try {
+            return CompletableFuture.completedFuture(generateBatch(contexts));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Потоковый ответ: onText получает весь накопленный текст при каждом новом куске,
+     * future — окончательный ответ. По умолчанию кусок один — готовый ответ целиком.
+     */
+    default CompletableFuture<String> generateResponseStreaming(String context, Consumer<String> onText) {
+        return generateResponseAsync(context).thenApply(text -> {
+            onText.accept(text);
+            return text;
+        });
+    }
+
+    /**
+     * Ответ не позже budget: не успели — ответ LocalLLMStub. Сам запрос при этом
+     * не отменяется, и опоздавший ответ ещё попадёт в кеш (если сервис кеширующий).
+     */
+    default CompletableFuture<String> generateResponseAsync(String context, long budget, TimeUnit unit) {
+        CompletableFuture<String> upstream;
+        try {
+            upstream = generateResponseAsync(context);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (upstream.isDone()) return upstream;
+        CompletableFuture<String> result = upstream.copy(); // завершение копии не трогает upstream
+        CompletableFuture.delayedExecutor(budget, unit)
+                .execute(() -> result.complete(new LocalLLMStub().generateResponse(context)));
+        return result;
+    }
+
+    /** Синхронный вариант generateResponseAsync с бюджетом. */
+    default String generateResponse(String context, long budget, TimeUnit unit) {
+        try {
+            return generateResponseAsync(context, budget, unit).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+    }
+
+    /** Счётчики сервиса (и обёрнутых им сервисов) для /stats; null — показывать нечего. */
+    default String getStats() {
+        return null;
+    }
 }
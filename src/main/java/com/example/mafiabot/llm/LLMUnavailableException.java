@@ -0,0 +1,21 @@
+package com.example.mafiabot.llm;
+
+/**
+ * LLM не дала ответа: 429, 5xx, пустой или неразборчивый ответ, сетевая ошибка.
+ *
+ * Сетевые сервисы не подменяют ответ заглушкой сами, а завершаются этим исключением,
+ * чтобы кеш не сохранил заглушку как ответ. Сообщение — короткое объяснение для
+ * игрока, его дописывает к локальному ответу FallbackLLMService.
+ */
+public class LLMUnavailableException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public LLMUnavailableException(String message) {
+        super(message);
+    }
+
+    public LLMUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
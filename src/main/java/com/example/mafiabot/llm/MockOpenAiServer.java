@@ -0,0 +1,371 @@
+package com.example.mafiabot.llm;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Локальный OpenAI-совместимый сервер chat/completions — для нагрузочных тестов
+ * и проверки отказов без сети и без ключа.
+ *
+ * Отвечает на POST {path}/chat/completions в формате OpenAI, с usage. stream: true —
+ * потоком server-sent events, пачка (response_format json_object) — JSON
+ * {"answers": [...]} по числу ситуаций "### N" в запросе. Отказы задаются Faults:
+ * задержка до первого байта (логнормальная вокруг медианы плюс редкий «хвост»),
+ * доля 429 с Retry-After, доля 5xx, доля ответов с битым JSON, пауза между кусками
+ * потока. Случайность берётся из seed и номера запроса, поэтому прогон с тем же
+ * seed и тем же порядком запросов повторяет ту же последовательность отказов.
+ *
+ * Запуск: MockOpenAiServer [порт]; отказы — переменные MOCK_* (см. Faults.fromEnv()).
+ * Бот направляется на него через OPENAI_BASE_URL=http://localhost:порт/v1.
+ * Ответы начинаются с "mock #": так отличить их от локальной заглушки.
+ */
+public class MockOpenAiServer {
+
+    /** Что и как часто ломать. */
+    public static class Faults {
+        public long latencyMedianMs = 300;
+        public double latencySigma = 0.3;     // разброс логнормального распределения
+        public double tailRate = 0;           // доля очень медленных ответов
+        public long tailLatencyMs = 10_000;
+        public double rate429 = 0;
+        public int retryAfterSeconds = 1;
+        public double rate5xx = 0;
+        public double malformedRate = 0;
+        public long streamChunkDelayMs = 50;  // пауза между кусками потока
+        public long seed = 42;
+
+        /** Настройки из MOCK_LATENCY_MS, MOCK_LATENCY_SIGMA, MOCK_TAIL_RATE, MOCK_TAIL_MS,
+         *  MOCK_429_RATE, MOCK_RETRY_AFTER, MOCK_5XX_RATE, MOCK_MALFORMED_RATE,
+         *  MOCK_STREAM_CHUNK_MS, MOCK_SEED. */
+        public static Faults fromEnv() {
+            Faults f = new Faults();
+            f.latencyMedianMs = Long.parseLong(env("MOCK_LATENCY_MS", f.latencyMedianMs));
+            f.latencySigma = Double.parseDouble(env("MOCK_LATENCY_SIGMA", f.latencySigma));
+            f.tailRate = Double.parseDouble(env("MOCK_TAIL_RATE", f.tailRate));
+            f.tailLatencyMs = Long.parseLong(env("MOCK_TAIL_MS", f.tailLatencyMs));
+            f.rate429 = Double.parseDouble(env("MOCK_429_RATE", f.rate429));
+            f.retryAfterSeconds = Integer.parseInt(env("MOCK_RETRY_AFTER", f.retryAfterSeconds));
+            f.rate5xx = Double.parseDouble(env("MOCK_5XX_RATE", f.rate5xx));
+            f.malformedRate = Double.parseDouble(env("MOCK_MALFORMED_RATE", f.malformedRate));
+            f.streamChunkDelayMs = Long.parseLong(env("MOCK_STREAM_CHUNK_MS", f.streamChunkDelayMs));
+            f.seed = Long.parseLong(env("MOCK_SEED", f.seed));
+            return f;
+        }
+
+        private static String env(String name, Object def) {
+            return System.getenv().getOrDefault(name, String.valueOf(def));
+        }
+
+        @Override
+        public String toString() {
+            return "latency=" + latencyMedianMs + "ms±" + latencySigma +
+                    " tail=" + tailRate + "@" + tailLatencyMs + "ms" +
+                    " 429=" + rate429 + " (retry-after " + retryAfterSeconds + "s)" +
+                    " 5xx=" + rate5xx +
+                    " malformed=" + malformedRate +
+                    " chunk=" + streamChunkDelayMs + "ms" +
+                    " seed=" + seed;
+        }
+    }
+
+    private static final String[] WORDS = (
+            "Этот игрок слишком старательно отводил подозрения от соседей " +
+            "и голосовал против тех, кто задавал ему вопросы.").split(" ");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Faults faults;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong ok = new AtomicLong();
+    private final AtomicLong tooMany = new AtomicLong();
+    private final AtomicLong serverErrors = new AtomicLong();
+    private final AtomicLong malformed = new AtomicLong();
+    private final AtomicLong streamed = new AtomicLong();
+
+    /**
+     * @param port     0 — свободный порт (см. getPort())
+     * @param basePath префикс API, например /v1
+     */
+    public MockOpenAiServer(int port, String basePath, Faults faults) throws IOException {
+        this.faults = faults;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        // задержки имитируются сном, поэтому поток на запрос — как у настоящего медленного API
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "mock-openai-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext(basePath + "/chat/completions", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            if (!"POST".equals(ex.getRequestMethod())) {
+                ex.sendResponseHeaders(405, -1);
+                return;
+            }
+            long n = requests.incrementAndGet();
+            SplittableRandom random = new SplittableRandom(faults.seed * 1_000_003L + n);
+
+            JsonObject request;
+            try (Reader in = new InputStreamReader(ex.getRequestBody(), StandardCharsets.UTF_8)) {
+                request = JsonParser.parseReader(in).getAsJsonObject();
+            } catch (RuntimeException e) {
+                error(ex, 400, "invalid_request_error", "could not parse JSON body");
+                return;
+            }
+
+            sleep(latencyMs(random));
+
+            double roll = random.nextDouble();
+            if (roll < faults.rate429) {
+                tooMany.incrementAndGet();
+                ex.getResponseHeaders().set("Retry-After", String.valueOf(faults.retryAfterSeconds));
+                error(ex, 429, "rate_limit_exceeded", "Rate limit reached (mock)");
+                return;
+            }
+            roll -= faults.rate429;
+            if (roll < faults.rate5xx) {
+                serverErrors.incrementAndGet();
+                error(ex, random.nextBoolean() ? 500 : 503, "server_error", "The server had an error (mock)");
+                return;
+            }
+            roll -= faults.rate5xx;
+            boolean broken = roll < faults.malformedRate;
+            if (broken) malformed.incrementAndGet();
+
+            String prompt = userContent(request);
+            int items = isBatch(request) ? countItems(prompt) : 0;
+            String content = items > 0 ? batchContent(n, items) : answer(n, -1);
+            int promptTokens = tokens(prompt) + 30;
+            int completionTokens = tokens(content);
+
+            JsonElement stream = request.get("stream");
+            if (stream != null && stream.isJsonPrimitive() && stream.getAsBoolean()) {
+                streamed.incrementAndGet();
+                stream(ex, n, content, broken, promptTokens, completionTokens);
+            } else {
+                complete(ex, n, content, broken, promptTokens, completionTokens);
+            }
+            if (!broken) ok.incrementAndGet();
+        }
+    }
+
+    private long latencyMs(SplittableRandom random) {
+        if (random.nextDouble() < faults.tailRate) {
+            return faults.tailLatencyMs;
+        }
+        return Math.round(faults.latencyMedianMs * Math.exp(faults.latencySigma * random.nextGaussian()));
+    }
+
+    private void complete(HttpExchange ex, long n, String content, boolean broken,
+                          int promptTokens, int completionTokens) throws IOException {
+        String body;
+        if (broken) {
+            // обрыв посреди JSON
+            body = "{\"id\":\"chatcmpl-mock-" + n + "\",\"choices\":[{\"message\":{\"role\":\"assistant\",\"content\":\"";
+        } else {
+            JsonObject message = new JsonObject();
+            message.addProperty("role", "assistant");
+            message.addProperty("content", content);
+            JsonObject choice = new JsonObject();
+            choice.addProperty("index", 0);
+            choice.add("message", message);
+            choice.addProperty("finish_reason", "stop");
+            JsonObject root = completion(n, "chat.completion");
+            JsonArray choices = new JsonArray();
+            choices.add(choice);
+            root.add("choices", choices);
+            root.add("usage", usage(promptTokens, completionTokens));
+            body = root.toString();
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private void stream(HttpExchange ex, long n, String content, boolean broken,
+                        int promptTokens, int completionTokens) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "text/event-stream");
+        ex.sendResponseHeaders(200, 0);
+        try (OutputStream out = ex.getResponseBody()) {
+            if (broken) {
+                event(out, "{\"choices\":[{\"delta\":{\"content\":");
+            } else {
+                String[] words = content.split(" ");
+                for (int i = 0; i < words.length; i++) {
+                    if (i > 0) sleep(faults.streamChunkDelayMs);
+                    JsonObject delta = new JsonObject();
+                    delta.addProperty("content", i == 0 ? words[i] : " " + words[i]);
+                    JsonObject choice = new JsonObject();
+                    choice.addProperty("index", 0);
+                    choice.add("delta", delta);
+                    JsonArray choices = new JsonArray();
+                    choices.add(choice);
+                    JsonObject chunk = completion(n, "chat.completion.chunk");
+                    chunk.add("choices", choices);
+                    event(out, chunk.toString());
+                }
+                JsonObject last = completion(n, "chat.completion.chunk");
+                last.add("choices", new JsonArray());
+                last.add("usage", usage(promptTokens, completionTokens));
+                event(out, last.toString());
+            }
+            event(out, "[DONE]");
+        }
+    }
+
+    private static void event(OutputStream out, String data) throws IOException {
+        out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static JsonObject completion(long n, String object) {
+        JsonObject root = new JsonObject();
+        root.addProperty("id", "chatcmpl-mock-" + n);
+        root.addProperty("object", object);
+        root.addProperty("model", "mock");
+        return root;
+    }
+
+    private static JsonObject usage(int promptTokens, int completionTokens) {
+        JsonObject usage = new JsonObject();
+        usage.addProperty("prompt_tokens", promptTokens);
+        usage.addProperty("completion_tokens", completionTokens);
+        usage.addProperty("total_tokens", promptTokens + completionTokens);
+        return usage;
+    }
+
+    private void error(HttpExchange ex, int code, String type, String message) throws IOException {
+        JsonObject error = new JsonObject();
+        error.addProperty("message", message);
+        error.addProperty("type", type);
+        JsonObject root = new JsonObject();
+        root.add("error", error);
+        byte[] bytes = root.toString().getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String userContent(JsonObject request) {
+        StringBuilder sb = new StringBuilder();
+        JsonArray messages = request.getAsJsonArray("messages");
+        if (messages == null) return "";
+        for (JsonElement m : messages) {
+            JsonElement content = m.getAsJsonObject().get("content");
+            if (content != null && content.isJsonPrimitive()) sb.append(content.getAsString()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static boolean isBatch(JsonObject request) {
+        JsonElement format = request.get("response_format");
+        if (format == null || !format.isJsonObject()) return false;
+        JsonElement type = format.getAsJsonObject().get("type");
+        return type != null && type.isJsonPrimitive() && "json_object".equals(type.getAsString());
+    }
+
+    /** Число ситуаций в пачке: строки "### N" (см. OpenAiLLMService.batchRequest). */
+    private static int countItems(String prompt) {
+        int count = 0;
+        for (String line : prompt.split("\n")) {
+            if (line.startsWith("### ")) count++;
+        }
+        return Math.max(1, count);
+    }
+
+    private static String batchContent(long n, int items) {
+        JsonArray answers = new JsonArray();
+        for (int i = 0; i < items; i++) {
+            answers.add(answer(n, i));
+        }
+        JsonObject root = new JsonObject();
+        root.add("answers", answers);
+        return root.toString();
+    }
+
+    private static String answer(long n, int item) {
+        StringBuilder sb = new StringBuilder("mock #").append(n);
+        if (item >= 0) sb.append('.').append(item + 1);
+        sb.append(':');
+        int from = (int) ((n + Math.max(item, 0)) % 4);
+        for (int i = from; i < WORDS.length; i++) {
+            sb.append(' ').append(WORDS[i]);
+        }
+        return sb.toString();
+    }
+
+    /** Грубая оценка: около 4 символов на токен. */
+    private static int tokens(String text) {
+        return Math.max(1, text.length() / 4);
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getRequestCount() { return requests.get(); }
+
+    @Override
+    public String toString() {
+        return "Mock OpenAI: requests=" + requests.get() +
+                " ok=" + ok.get() +
+                " 429=" + tooMany.get() +
+                " 5xx=" + serverErrors.get() +
+                " malformed=" + malformed.get() +
+                " streamed=" + streamed.get();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8089;
+        Faults faults = Faults.fromEnv();
+        MockOpenAiServer server = new MockOpenAiServer(port, "/v1", faults);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println(server)));
+        System.out.println("Mock OpenAI on http://127.0.0.1:" + server.getPort() + "/v1 (" + faults + ")");
+        Thread.currentThread().join();
+    }
+}
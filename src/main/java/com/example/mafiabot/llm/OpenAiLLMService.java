@@ -1,32 +1,111 @@
 package com.example.mafiabot.llm;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.BufferedSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
- * LLM-сервис, который сначала пробует сходить в OpenAI,
- * а при ошибках (особенно 429) падает обратно на LocalLLMStub.
+ * LLM-сервис поверх OpenAI chat/completions.
+ *
+ * При ошибках (429, 5xx, пустой или неразборчивый ответ, сеть) ответ завершается
+ * LLMUnavailableException, а не текстом заглушки: откат на LocalLLMStub делает
+ * FallbackLLMService над кешем, чтобы заглушка не попала в кеш.
+ *
+ * Асинхронные методы ставят запрос в диспетчер OkHttp (enqueue) и не держат
+ * вызывающий поток на сетевом вводе-выводе; отмена future отменяет HTTP-вызов.
+ * Пул соединений, keep-alive, HTTP/2 и таймауты задаются клиентом — см. httpClient().
+ *
+ * Необязательные CircuitBreaker и AdaptiveLimiter стоят перед каждым HTTP-вызовом:
+ * при разомкнутом предохранителе или исчерпанном пределе запрос не отправляется,
+ * а сразу завершается отказом — без ожидания таймаута во время сбоя OpenAI. Отказ
+ * не кешируется, поэтому после восстановления те же запросы снова идут в OpenAI
+ * (и служат пробными для полуоткрытого предохранителя).
+ *
+ * С HedgePolicy одиночный запрос, который идёт дольше обычного (перцентиль недавних
+ * задержек одиночных запросов), дублируется: берётся первый успешный ответ, второй
+ * вызов отменяется. Пачки и потоковые ответы не дублируются и в задержки не пишутся:
+ * пачка заметно дольше одиночного ответа и почти всегда уходила бы дважды.
+ *
+ * generateResponseStreaming запрашивает ответ потоком (stream: true, server-sent events)
+ * и разбирает куски по мере прихода, не дожидаясь конца тела ответа.
+ *
+ * С TokenUsage токены каждого ответа (usage) записываются на чат и место вызова
+ * из метки TokenUsage.tag(); при исчерпанной квоте запрос не отправляется, а сразу
+ * завершается отказом.
  */
 public class OpenAiLLMService implements LLMService {
 
-    private static final String API_URL = "https://api.openai.com/v1/chat/completions";
+    public static final String DEFAULT_BASE_URL = "https://api.openai.com/v1";
     private static final MediaType JSON =
             MediaType.get("application/json; charset=utf-8");
 
-    private final OkHttpClient httpClient = new OkHttpClient();
+    private static final String SYSTEM_PROMPT =
+            "Ты — объяснимый ИИ, который кратко и понятно объясняет свои " +
+                    "ходы в настольной игре 'Мафия'. Отвечай по-русски, 1–3 предложения.";
+
+    // На одно объяснение в пачке — как у одиночного запроса, плюс обвязка JSON
+    private static final int MAX_TOKENS_PER_ITEM = 160;
+
+    private final OkHttpClient httpClient;
     private final String apiKey;
     private final String model;
-
-    // Локальная заглушка – сюда откатываемся при 429 и прочих проблемах
-    private final LLMService fallbackStub = new LocalLLMStub();
+    private final String apiUrl;
+    private final CircuitBreaker breaker;   // null — без предохранителя
+    private final AdaptiveLimiter limiter;  // null — без предела
+    private final HedgePolicy hedge;        // null — без хеджирующих запросов
+    private final TokenUsage usage;         // null — без учёта токенов и квот
 
     public OpenAiLLMService(String apiKey, String model) {
+        this(apiKey, model, new OkHttpClient());
+    }
+
+    public OpenAiLLMService(String apiKey, String model, OkHttpClient httpClient) {
+        this(apiKey, model, httpClient, null, null);
+    }
+
+    public OpenAiLLMService(String apiKey, String model, OkHttpClient httpClient,
+                            CircuitBreaker breaker, AdaptiveLimiter limiter) {
+        this(apiKey, model, httpClient, breaker, limiter, null);
+    }
+
+    public OpenAiLLMService(String apiKey, String model, OkHttpClient httpClient,
+                            CircuitBreaker breaker, AdaptiveLimiter limiter, HedgePolicy hedge) {
+        this(apiKey, model, httpClient, breaker, limiter, hedge, null);
+    }
+
+    public OpenAiLLMService(String apiKey, String model, OkHttpClient httpClient,
+                            CircuitBreaker breaker, AdaptiveLimiter limiter, HedgePolicy hedge,
+                            TokenUsage usage) {
+        this(apiKey, model, httpClient, breaker, limiter, hedge, usage, DEFAULT_BASE_URL);
+    }
+
+    /**
+     * @param baseUrl адрес OpenAI-совместимого API без /chat/completions, например
+     *                http://localhost:8089/v1 для MockOpenAiServer
+     */
+    public OpenAiLLMService(String apiKey, String model, OkHttpClient httpClient,
+                            CircuitBreaker breaker, AdaptiveLimiter limiter, HedgePolicy hedge,
+                            TokenUsage usage, String baseUrl) {
         if (apiKey == null || apiKey.isBlank()) {
             throw new IllegalArgumentException(
                     "OpenAI API key is null/blank. " +
@@ -37,100 +116,589 @@ public class OpenAiLLMService implements LLMService {
         this.model = (model == null || model.isBlank())
                 ? "gpt-4o-mini"
                 : model;
+        this.httpClient = httpClient;
+        this.breaker = breaker;
+        this.limiter = limiter;
+        this.hedge = hedge;
+        this.usage = usage;
+        String base = (baseUrl == null || baseUrl.isBlank()) ? DEFAULT_BASE_URL : baseUrl.strip();
+        this.apiUrl = (base.endsWith("/") ? base.substring(0, base.length() - 1) : base) + "/chat/completions";
+    }
+
+    /**
+     * HTTP-клиент для OpenAI.
+     *
+     * @param maxConnections   сколько простаивающих соединений держать в пуле
+     *                         и сколько запросов выполнять одновременно
+     * @param keepAliveSeconds сколько держать простаивающее соединение
+     * @param http2            разрешить HTTP/2 (несколько запросов в одном соединении)
+     * @param connectTimeoutMs таймаут установки соединения
+     * @param callTimeoutMs    таймаут всего вызова, от отправки до последнего байта ответа
+     */
+    public static OkHttpClient httpClient(int maxConnections, long keepAliveSeconds, boolean http2,
+                                          long connectTimeoutMs, long callTimeoutMs) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxConnections);
+        dispatcher.setMaxRequestsPerHost(maxConnections);
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(maxConnections, keepAliveSeconds, TimeUnit.SECONDS))
+                .protocols(http2 ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1) : List.of(Protocol.HTTP_1_1))
+                .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(callTimeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(callTimeoutMs, TimeUnit.MILLISECONDS)
+                .callTimeout(callTimeoutMs, TimeUnit.MILLISECONDS)
+                .build();
     }
 
     @Override
     public String generateResponse(String context) {
-        // если совсем нет контекста – подставим дефолтный
-        if (context == null || context.isBlank()) {
-            context = "Кратко объясни свой ход в мафии.";
+        String ctx = withDefault(context);
+        TokenUsage.Tag tag = TokenUsage.current();
+        return execute(tag, singleRequest(ctx), r -> parseSingle(r, tag), true);
+    }
+
+    @Override
+    public CompletableFuture<String> generateResponseAsync(String context) {
+        String ctx = withDefault(context);
+        TokenUsage.Tag tag = TokenUsage.current();
+        return enqueue(tag, singleRequest(ctx), r -> parseSingle(r, tag), true);
+    }
+
+    /** Куски ответа приходят в onText по мере генерации; хеджирование не применяется. */
+    @Override
+    public CompletableFuture<String> generateResponseStreaming(String context, Consumer<String> onText) {
+        String ctx = withDefault(context);
+        TokenUsage.Tag tag = TokenUsage.current();
+        return enqueue(tag, streamRequest(ctx), r -> parseStream(r, onText, tag), false);
+    }
+
+    /**
+     * Пачка объяснений одним запросом: контексты нумеруются, модель возвращает
+     * JSON {"answers": [...]} в том же порядке (response_format = json_object).
+     * На месте элементов, которые не удалось разобрать, — null; при ошибке запроса
+     * вся пачка завершается LLMUnavailableException.
+     */
+    @Override
+    public List<String> generateBatch(List<String> contexts) {
+        if (contexts.isEmpty()) return List.of();
+        if (contexts.size() == 1) return List.of(generateResponse(contexts.get(0)));
+        TokenUsage.Tag tag = TokenUsage.current();
+        return execute(tag, batchRequest(contexts), r -> parseBatchResponse(contexts, r, tag), false);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> generateBatchAsync(List<String> contexts) {
+        if (contexts.isEmpty()) return CompletableFuture.completedFuture(List.of());
+        if (contexts.size() == 1) return generateResponseAsync(contexts.get(0)).thenApply(List::of);
+        TokenUsage.Tag tag = TokenUsage.current();
+        return enqueue(tag, batchRequest(contexts), r -> parseBatchResponse(contexts, r, tag), false);
+    }
+
+    // ==== Запросы ====
+
+    /** Разбор HTTP-ответа; неуспешный ответ — LLMUnavailableException. */
+    private interface ResponseHandler<T> {
+        T handle(Response response) throws IOException;
+    }
+
+    /** Вызов не отправлен: предохранитель разомкнут, исчерпан предел запросов или квота. */
+    static final class RejectedException extends LLMUnavailableException {
+        private static final long serialVersionUID = 1L;
+
+        RejectedException(String reason) {
+            super("OpenAI временно недоступна: " + reason + ", использую локальное объяснение");
         }
+    }
 
-        try {
-            // --- формируем JSON-запрос к OpenAI ---
-            JsonObject root = new JsonObject();
-            root.addProperty("model", model);
-
-            JsonArray messages = new JsonArray();
-
-            JsonObject systemMsg = new JsonObject();
-            systemMsg.addProperty("role", "system");
-            systemMsg.addProperty(
-                    "content",
-                    "Ты — объяснимый ИИ, который кратко и понятно объясняет свои " +
-                            "ходы в настольной игре 'Мафия'. Отвечай по-русски, 1–3 предложения."
-            );
-            messages.add(systemMsg);
-
-            JsonObject userMsg = new JsonObject();
-            userMsg.addProperty("role", "user");
-            userMsg.addProperty("content", context);
-            messages.add(userMsg);
-
-            root.add("messages", messages);
-            root.addProperty("temperature", 0.7);
-            root.addProperty("max_tokens", 128);
-
-            RequestBody body = RequestBody.create(root.toString(), JSON);
-
-            Request request = new Request.Builder()
-                    .url(API_URL)
-                    .header("Authorization", "Bearer " + apiKey)
-                    .header("Content-Type", "application/json")
-                    .post(body)
-                    .build();
-
-            try (Response response = httpClient.newCall(request).execute()) {
-                if (!response.isSuccessful()) {
-                    String errorBody =
-                            response.body() != null ? response.body().string() : "";
-                    System.err.println(
-                            "OpenAI API error: HTTP " + response.code() + " " + errorBody
-                    );
-
-                    // === КЛЮЧЕВОЕ МЕСТО: обработка 429 ===
-                    if (response.code() == 429) {
-                        // Превышен лимит / слишком часто вызываем API – откатываемся на заглушку
-                        String fallback = fallbackStub.generateResponse(context);
-                        return fallback + " (ограничение OpenAI, использую локальное объяснение)";
-                    }
+    /**
+     * @param hedgeable можно ли дублировать медленный вызов (только одиночные запросы)
+     * @throws LLMUnavailableException если вызов отклонён или OpenAI не ответила
+     */
+    private <T> T execute(TokenUsage.Tag tag, Request request, ResponseHandler<T> handler, boolean hedgeable) {
+        if (hedge != null && hedgeable) {
+            // хеджирование требует двух вызовов одновременно — только через диспетчер
+            try {
+                return enqueue(tag, request, handler, true).join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+        if (overQuota(tag)) {
+            throw new RejectedException("исчерпана квота токенов");
+        }
+        Permit permit = acquire();
+        if (permit == null) {
+            throw rejection();
+        }
+        try (Response response = httpClient.newCall(request).execute()) {
+            permit.onResponse(response.code());
+            return handler.handle(response);
+        } catch (Exception e) {
+            permit.onFailure(e, false);
+            throw unavailable(e);
+        }
+    }
 
-                    // Для других кодов тоже можно откатываться на заглушку
-                    String fallback = fallbackStub.generateResponse(context);
-                    return fallback + " (ошибка связи с OpenAI: " + response.code() + ")";
-                }
+    private <T> CompletableFuture<T> enqueue(TokenUsage.Tag tag, Request request, ResponseHandler<T> handler,
+                                             boolean hedgeable) {
+        if (overQuota(tag)) {
+            return CompletableFuture.failedFuture(new RejectedException("исчерпана квота токенов"));
+        }
+        Permit permit = acquire();
+        if (permit == null) {
+            return CompletableFuture.failedFuture(rejection());
+        }
+        Race<T> race = new Race<>(request, handler, hedge != null && hedgeable);
+        race.launch(permit, false);
+        if (race.hedgeable) {
+            CompletableFuture.delayedExecutor(hedge.delayNanos(), TimeUnit.NANOSECONDS).execute(race::sendHedge);
+        }
+        // отменили ожидание (например, дедлайн) — отменяем и HTTP-вызовы
+        race.future.whenComplete((r, e) -> {
+            if (race.future.isCancelled()) race.cancelAll();
+        });
+        return race.future;
+    }
 
-                String responseBody =
-                        response.body() != null ? response.body().string() : "";
-                JsonObject json =
-                        JsonParser.parseString(responseBody).getAsJsonObject();
+    /**
+     * Один логический запрос: первый HTTP-вызов и, возможно, хеджирующий второй.
+     * Результат — первый успешно разобранный ответ, оставшийся вызов отменяется. Если
+     * вызов неудачен, а второй ещё в пути, ждём второй; неудачны оба — future завершается
+     * LLMUnavailableException последнего.
+     *
+     * В HedgePolicy пишется задержка всего запроса от первого вызова до победившего ответа,
+     * а не задержка отдельного вызова: иначе медленные первые вызовы, которые обогнал
+     * дубль, в выборку не попадают, порог хеджирования падает и дублей становится больше.
+     * Обогнанный вызов предохранитель и предел видят как медленный успех со временем
+     * до отмены, а не как «ничего не известно».
+     */
+    private final class Race<T> {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        private final Request request;
+        private final ResponseHandler<T> handler;
+        // задержки пишутся в HedgePolicy только для запросов того же рода, что дублируются
+        final boolean hedgeable;
+        private final long startedAt = System.nanoTime();
+        private final List<Call> calls = new ArrayList<>(2);
+        // вызовы, отменённые потому, что другой ответил раньше
+        private final List<Call> overtaken = new ArrayList<>(1);
+        private int pending;
 
-                JsonArray choices = json.getAsJsonArray("choices");
-                if (choices == null || choices.size() == 0) {
-                    return fallbackStub.generateResponse(context) +
-                            " (LLM вернула пустой ответ)";
+        Race(Request request, ResponseHandler<T> handler, boolean hedgeable) {
+            this.request = request;
+            this.handler = handler;
+            this.hedgeable = hedgeable;
+        }
+
+        /** Второй вызов, если первый ещё не ответил и есть разрешение. */
+        void sendHedge() {
+            if (future.isDone()) return;
+            Permit permit = acquire();
+            if (permit == null) return; // OpenAI перегружена — дублировать не стоит
+            hedge.onHedge();
+            launch(permit, true);
+        }
+
+        void launch(Permit permit, boolean hedged) {
+            Call call = httpClient.newCall(request);
+            synchronized (this) {
+                if (future.isDone()) {
+                    permit.onFailure(null, true);
+                    return;
+                }
+                calls.add(call);
+                pending++;
+            }
+            call.enqueue(new Callback() {
+                @Override
+                public void onResponse(Call c, Response response) {
+                    permit.onResponse(response.code());
+                    T result = null;
+                    LLMUnavailableException error = null;
+                    try (response) {
+                        // уже ответил другой вызов: успешный ответ всё равно разбираем —
+                        // токены за него списаны, и разбор записывает их в TokenUsage
+                        if (future.isDone() && !response.isSuccessful()) return;
+                        result = handler.handle(response);
+                    } catch (Exception e) {
+                        error = unavailable(e);
+                    }
+                    finish(c, result, error, hedged);
                 }
 
-                JsonObject firstChoice = choices.get(0).getAsJsonObject();
-                JsonObject message = firstChoice.getAsJsonObject("message");
-                if (message == null || !message.has("content")) {
-                    return fallbackStub.generateResponse(context) +
-                            " (LLM ответила в неожиданном формате)";
+                @Override
+                public void onFailure(Call c, IOException e) {
+                    if (isOvertaken(c)) {
+                        permit.onOvertaken();
+                        return;
+                    }
+                    permit.onFailure(e, c.isCanceled());
+                    if (c.isCanceled()) return; // отменили мы сами: ответ не нужен
+                    finish(c, null, unavailable(e), hedged);
                 }
+            });
+        }
 
-                String content = message.get("content").getAsString();
-                if (content == null || content.isBlank()) {
-                    return fallbackStub.generateResponse(context) +
-                            " (LLM вернула пустой ответ)";
+        private void finish(Call call, T result, LLMUnavailableException error, boolean hedged) {
+            List<Call> others = new ArrayList<>(1);
+            synchronized (this) {
+                pending--;
+                if (future.isDone() || (error != null && pending > 0)) return;
+                for (Call other : calls) {
+                    if (other != call) others.add(other);
+                }
+                if (error == null) overtaken.addAll(others);
+            }
+            boolean completed = error == null ? future.complete(result) : future.completeExceptionally(error);
+            if (completed) {
+                if (error == null && hedgeable) hedge.record(System.nanoTime() - startedAt);
+                if (error == null && hedged) hedge.onHedgeWin();
+                for (Call other : others) {
+                    other.cancel();
                 }
+            }
+        }
+
+        private synchronized boolean isOvertaken(Call call) {
+            return overtaken.contains(call);
+        }
 
-                return content.trim();
+        void cancelAll() {
+            List<Call> all;
+            synchronized (this) {
+                all = new ArrayList<>(calls);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            // На любые исключения тоже откатываемся на локальное объяснение
-            String fallback = fallbackStub.generateResponse(context);
-            return fallback + " (исключение при обращении к OpenAI: " + e.getMessage() + ")";
+            for (Call call : all) {
+                call.cancel();
+            }
+        }
+    }
+
+    // ==== Предохранитель и предел одновременных запросов ====
+
+    /** Разрешение на один HTTP-вызов; результат сообщается ровно один раз. */
+    private final class Permit {
+        private final long startedAt = System.nanoTime();
+        private final boolean inLimiter;
+        private boolean done;
+
+        Permit(boolean inLimiter) {
+            this.inLimiter = inLimiter;
+        }
+
+        synchronized void onResponse(int code) {
+            if (done) return;
+            done = true;
+            long nanos = System.nanoTime() - startedAt;
+            if (code == 429 || code >= 500) {
+                // перегрузка или сбой на стороне OpenAI
+                if (breaker != null) breaker.onFailure();
+                if (inLimiter) limiter.onDropped();
+            } else {
+                // 2xx и прочие 4xx: сервис отвечает, проблема не в нём
+                if (breaker != null) breaker.onSuccess(nanos);
+                if (inLimiter) limiter.onSuccess(nanos);
+            }
+        }
+
+        /** Вызов жив, но другой ответил раньше: для предохранителя и предела это медленный успех. */
+        synchronized void onOvertaken() {
+            if (done) return;
+            done = true;
+            long nanos = System.nanoTime() - startedAt;
+            if (breaker != null) breaker.onSuccess(nanos);
+            if (inLimiter) limiter.onSuccess(nanos);
+        }
+
+        synchronized void onFailure(Exception e, boolean cancelled) {
+            if (done) return;
+            done = true;
+            if (cancelled) {
+                if (breaker != null) breaker.onIgnore();
+                if (inLimiter) limiter.onIgnore();
+            } else {
+                if (breaker != null) breaker.onFailure();
+                if (inLimiter) limiter.onDropped();
+            }
+        }
+    }
+
+    /** @return null, если вызов надо отклонить */
+    private Permit acquire() {
+        if (breaker != null && !breaker.tryAcquire()) {
+            return null;
+        }
+        if (limiter != null && !limiter.tryAcquire()) {
+            if (breaker != null) breaker.onIgnore();
+            return null;
+        }
+        return new Permit(limiter != null);
+    }
+
+    private boolean overQuota(TokenUsage.Tag tag) {
+        return usage != null && usage.isExhausted(tag);
+    }
+
+    private RejectedException rejection() {
+        return breaker != null && breaker.getState() == CircuitBreaker.State.OPEN
+                ? new RejectedException("предохранитель разомкнут")
+                : new RejectedException("слишком много одновременных запросов");
+    }
+
+    @Override
+    public String getStats() {
+        if (breaker == null && limiter == null && hedge == null && usage == null) return null;
+        StringBuilder sb = new StringBuilder("OpenAI:");
+        if (breaker != null) sb.append(' ').append(breaker);
+        if (limiter != null) sb.append(' ').append(limiter);
+        if (hedge != null) sb.append(' ').append(hedge);
+        if (usage != null) sb.append('\n').append(usage);
+        return sb.toString();
+    }
+
+    private static String withDefault(String context) {
+        // если совсем нет контекста – подставим дефолтный
+        return context == null || context.isBlank() ? "Кратко объясни свой ход в мафии." : context;
+    }
+
+    private Request singleRequest(String context) {
+        // --- формируем JSON-запрос к OpenAI ---
+        JsonObject root = chatRequest(context);
+        root.addProperty("max_tokens", 128);
+        return post(root);
+    }
+
+    private Request streamRequest(String context) {
+        JsonObject root = chatRequest(context);
+        root.addProperty("max_tokens", 128);
+        root.addProperty("stream", true);
+        JsonObject streamOptions = new JsonObject();
+        streamOptions.addProperty("include_usage", true); // последний кусок — usage без choices
+        root.add("stream_options", streamOptions);
+        return post(root);
+    }
+
+    private Request batchRequest(List<String> contexts) {
+        StringBuilder user = new StringBuilder();
+        user.append("Ниже ").append(contexts.size()).append(" независимых ситуаций. ")
+                .append("Для каждой дай отдельное объяснение. Верни JSON-объект ")
+                .append("{\"answers\": [\"...\", ...]} ровно с ").append(contexts.size())
+                .append(" строками в том же порядке.\n");
+        for (int i = 0; i < contexts.size(); i++) {
+            user.append("\n### ").append(i + 1).append("\n").append(contexts.get(i)).append("\n");
+        }
+
+        JsonObject root = chatRequest(user.toString());
+        root.addProperty("max_tokens", MAX_TOKENS_PER_ITEM * contexts.size());
+        JsonObject format = new JsonObject();
+        format.addProperty("type", "json_object");
+        root.add("response_format", format);
+        return post(root);
+    }
+
+    private JsonObject chatRequest(String userContent) {
+        JsonObject root = new JsonObject();
+        root.addProperty("model", model);
+
+        JsonArray messages = new JsonArray();
+
+        JsonObject systemMsg = new JsonObject();
+        systemMsg.addProperty("role", "system");
+        systemMsg.addProperty("content", SYSTEM_PROMPT);
+        messages.add(systemMsg);
+
+        JsonObject userMsg = new JsonObject();
+        userMsg.addProperty("role", "user");
+        userMsg.addProperty("content", userContent);
+        messages.add(userMsg);
+
+        root.add("messages", messages);
+        root.addProperty("temperature", 0.7);
+        return root;
+    }
+
+    private Request post(JsonObject root) {
+        return new Request.Builder()
+                .url(apiUrl)
+                .header("Authorization", "Bearer " + apiKey)
+                .header("Content-Type", "application/json")
+                .post(RequestBody.create(root.toString(), JSON))
+                .build();
+    }
+
+    // ==== Ответы ====
+
+    private String parseSingle(Response response, TokenUsage.Tag tag) throws IOException {
+        if (!response.isSuccessful()) {
+            String errorBody =
+                    response.body() != null ? response.body().string() : "";
+            System.err.println(
+                    "OpenAI API error: HTTP " + response.code() + " " + errorBody
+            );
+            throw httpError(response.code());
+        }
+
+        String responseBody =
+                response.body() != null ? response.body().string() : "";
+        JsonObject json =
+                JsonParser.parseString(responseBody).getAsJsonObject();
+        recordUsage(tag, json);
+
+        JsonArray choices = json.getAsJsonArray("choices");
+        if (choices == null || choices.size() == 0) {
+            throw new LLMUnavailableException("LLM вернула пустой ответ");
+        }
+
+        JsonObject firstChoice = choices.get(0).getAsJsonObject();
+        JsonObject message = firstChoice.getAsJsonObject("message");
+        if (message == null || !message.has("content")) {
+            throw new LLMUnavailableException("LLM ответила в неожиданном формате");
+        }
+
+        String content = message.get("content").getAsString();
+        if (content == null || content.isBlank()) {
+            throw new LLMUnavailableException("LLM вернула пустой ответ");
+        }
+
+        return content.trim();
+    }
+
+    /**
+     * Поток server-sent events: строки "data: {chunk}", в конце "data: [DONE]".
+     * Тело читается построчно, каждый кусок сразу уходит в onText.
+     */
+    private String parseStream(Response response, Consumer<String> onText,
+                               TokenUsage.Tag tag) throws IOException {
+        if (!response.isSuccessful() || response.body() == null) {
+            return parseSingle(response, tag);
+        }
+        BufferedSource source = response.body().source();
+        StringBuilder text = new StringBuilder();
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (!line.startsWith("data:")) continue; // пустые строки-разделители и комментарии
+            String data = line.substring(5).trim();
+            if (data.equals("[DONE]")) break;
+            JsonObject chunk = parseObject(data);
+            if (chunk == null) continue;
+            recordUsage(tag, chunk);
+            String delta = deltaText(chunk);
+            if (delta != null && !delta.isEmpty()) {
+                text.append(delta);
+                onText.accept(text.toString());
+            }
+        }
+        String content = text.toString().trim();
+        if (content.isEmpty()) {
+            throw new LLMUnavailableException("LLM вернула пустой ответ");
+        }
+        return content;
+    }
+
+    private static JsonObject parseObject(String data) {
+        try {
+            return JsonParser.parseString(data).getAsJsonObject();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** Текст одного куска потока (choices[0].delta.content) или null. */
+    static String deltaText(JsonObject chunk) {
+        try {
+            JsonArray choices = chunk.getAsJsonArray("choices");
+            if (choices == null || choices.size() == 0) return null;
+            JsonObject delta = choices.get(0).getAsJsonObject().getAsJsonObject("delta");
+            if (delta == null || !delta.has("content") || delta.get("content").isJsonNull()) return null;
+            return delta.get("content").getAsString();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** Записать usage ответа (или последнего куска потока), если он есть. */
+    private void recordUsage(TokenUsage.Tag tag, JsonObject json) {
+        if (usage == null) return;
+        try {
+            JsonElement u = json.get("usage");
+            if (u == null || !u.isJsonObject()) return;
+            JsonObject o = u.getAsJsonObject();
+            long prompt = o.has("prompt_tokens") ? o.get("prompt_tokens").getAsLong() : 0;
+            long completion = o.has("completion_tokens") ? o.get("completion_tokens").getAsLong() : 0;
+            usage.record(tag, prompt, completion);
+        } catch (RuntimeException e) {
+            System.err.println("OpenAI usage parse failed: " + e.getMessage());
+        }
+    }
+
+    private static LLMUnavailableException httpError(int code) {
+        return new LLMUnavailableException(code == 429
+                ? "ограничение OpenAI, использую локальное объяснение"
+                : "ошибка связи с OpenAI: " + code);
+    }
+
+    /** Отказ OpenAI как есть, прочие исключения — с пометкой и в лог. */
+    private static LLMUnavailableException unavailable(Exception e) {
+        if (e instanceof LLMUnavailableException u) return u;
+        e.printStackTrace();
+        return new LLMUnavailableException("исключение при обращении к OpenAI: " + e.getMessage(), e);
+    }
+
+    private List<String> parseBatchResponse(List<String> contexts, Response response,
+                                            TokenUsage.Tag tag) throws IOException {
+        String responseBody = response.body() != null ? response.body().string() : "";
+        if (!response.isSuccessful()) {
+            System.err.println("OpenAI API error (batch): HTTP " + response.code() + " " + responseBody);
+            throw httpError(response.code());
+        }
+        if (usage != null) {
+            JsonObject json = parseObject(responseBody);
+            if (json != null) recordUsage(tag, json);
+        }
+        List<String> answers = parseBatch(responseBody, contexts.size());
+        if (answers == null) {
+            throw new LLMUnavailableException("LLM ответила в неожиданном формате");
+        }
+        return answers;
+    }
+
+    /**
+     * Разобрать ответ chat/completions с JSON {"answers": [...]} внутри.
+     * @return n элементов; null на месте пустых и неразобранных, null вместо списка —
+     *         если ответ не разобрать совсем
+     */
+    static List<String> parseBatch(String responseBody, int n) {
+        String content;
+        try {
+            JsonArray choices = JsonParser.parseString(responseBody).getAsJsonObject().getAsJsonArray("choices");
+            content = choices.get(0).getAsJsonObject().getAsJsonObject("message").get("content").getAsString();
+        } catch (RuntimeException e) {
+            return null;
+        }
+
+        JsonArray items;
+        try {
+            JsonElement parsed = JsonParser.parseString(content);
+            if (parsed.isJsonArray()) {
+                items = parsed.getAsJsonArray();
+            } else {
+                items = parsed.getAsJsonObject().getAsJsonArray("answers");
+            }
+        } catch (RuntimeException e) {
+            return null;
+        }
+        if (items == null) return null;
+
+        List<String> answers = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String answer = null;
+            if (i < items.size() && items.get(i).isJsonPrimitive()) {
+                answer = items.get(i).getAsString().trim();
+                if (answer.isEmpty()) answer = null;
+            }
+            answers.add(answer);
         }
+        return answers;
     }
 }
@@ -0,0 +1,238 @@
+package com.example.mafiabot.llm;
+
+import com.example.mafiabot.db.LlmUsageDao;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Учёт токенов LLM и дневные квоты.
+ *
+ * OpenAiLLMService сообщает usage каждого ответа (prompt_tokens, completion_tokens)
+ * с меткой запроса: какой чат и какое место вызова (ночь мафии, голоса днём). Метку
+ * ставит вызывающий код на время отправки запроса — см. tag().
+ *
+ * Счётчики за текущие сутки (UTC) ведутся в памяти. Приросты раз в flushInterval
+ * прибавляются к llm_usage_daily одной транзакцией — по строке на день, чат и место
+ * вызова, а не на каждый запрос. При запуске сегодняшние итоги читаются из таблицы,
+ * так что квоты переживают перезапуск.
+ *
+ * Квота сверяется до запроса с уже потраченным, поэтому одновременные запросы могут
+ * превысить её на несколько ответов.
+ */
+public class TokenUsage implements AutoCloseable {
+
+    /** Запрос не привязан к чату. */
+    public static final long NO_CHAT = 0;
+
+    /** Метка запросов, отправляемых из текущего потока: чат и место вызова. */
+    public static final class Tag implements AutoCloseable {
+        public final long chatId;
+        public final String site;
+        private final Tag previous;
+
+        private Tag(long chatId, String site, Tag previous) {
+            this.chatId = chatId;
+            this.site = site;
+            this.previous = previous;
+        }
+
+        /** Вернуть метку, которая была до tag(). */
+        @Override
+        public void close() {
+            CURRENT.set(previous);
+        }
+    }
+
+    private static final ThreadLocal<Tag> CURRENT = new ThreadLocal<>();
+    private static final Tag UNTAGGED = new Tag(NO_CHAT, "other", null);
+
+    /**
+     * Пометить запросы, отправленные из этого потока до close():
+     * <pre>try (TokenUsage.Tag t = TokenUsage.tag(chatId, "day_vote")) { ... }</pre>
+     * Переменная t в теле не нужна, поэтому методу с таким try нужен
+     * {@code @SuppressWarnings("try")}.
+     */
+    public static Tag tag(long chatId, String site) {
+        Tag t = new Tag(chatId, site, CURRENT.get());
+        CURRENT.set(t);
+        return t;
+    }
+
+    /** Текущая метка потока; без tag() — «без чата». */
+    public static Tag current() {
+        Tag t = CURRENT.get();
+        return t != null ? t : UNTAGGED;
+    }
+
+    private record Key(String day, long chatId, String site) { }
+
+    private final LlmUsageDao dao;
+    private final long dailyLimit;
+    private final long chatDailyLimit;
+    private final ScheduledExecutorService flusher;
+
+    // всё ниже — под локом объекта
+    private String day;
+    private long todayTokens;
+    private final Map<Long, Long> todayByChat = new HashMap<>();
+    private final Map<String, long[]> todayBySite = new TreeMap<>(); // calls, prompt, completion
+    private final Map<Key, long[]> unsaved = new HashMap<>();       // приросты, ещё не записанные в БД
+    private long degraded;
+
+    /**
+     * @param dao            куда сохранять дневные агрегаты; null — только в памяти
+     * @param dailyLimit     токенов в сутки на всех (0 — без ограничения)
+     * @param chatDailyLimit токенов в сутки на чат (0 — без ограничения)
+     * @param flushInterval  как часто сбрасывать приросты в БД
+     */
+    public TokenUsage(LlmUsageDao dao, long dailyLimit, long chatDailyLimit, long flushInterval, TimeUnit unit) {
+        if (dailyLimit < 0 || chatDailyLimit < 0 || flushInterval <= 0) {
+            throw new IllegalArgumentException("limits must be >= 0 and flushInterval positive");
+        }
+        this.dao = dao;
+        this.dailyLimit = dailyLimit;
+        this.chatDailyLimit = chatDailyLimit;
+        this.day = today();
+        load();
+        if (dao != null) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "llm-usage-flush");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, unit);
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    /** Сегодняшние итоги из БД — квоты продолжаются после перезапуска. */
+    private void load() {
+        if (dao == null) return;
+        try {
+            for (LlmUsageDao.Row r : dao.loadDay(day)) {
+                add(r.chatId, r.site, r.calls, r.promptTokens, r.completionTokens);
+            }
+        } catch (Exception e) {
+            System.err.println("LLM usage load failed: " + e.getMessage());
+        }
+    }
+
+    /** Ответ LLM израсходовал столько токенов. */
+    public synchronized void record(Tag tag, long promptTokens, long completionTokens) {
+        rollover();
+        add(tag.chatId, tag.site, 1, promptTokens, completionTokens);
+        long[] u = unsaved.computeIfAbsent(new Key(day, tag.chatId, tag.site), k -> new long[3]);
+        u[0]++;
+        u[1] += promptTokens;
+        u[2] += completionTokens;
+    }
+
+    private void add(long chatId, String site, long calls, long prompt, long completion) {
+        long tokens = prompt + completion;
+        todayTokens += tokens;
+        todayByChat.merge(chatId, tokens, Long::sum);
+        long[] s = todayBySite.computeIfAbsent(site, k -> new long[3]);
+        s[0] += calls;
+        s[1] += prompt;
+        s[2] += completion;
+    }
+
+    /**
+     * Исчерпана ли квота (общая или чата) на сегодня. true засчитывается как
+     * отказ: вызывающий обходится кешем или заглушкой.
+     */
+    public synchronized boolean isExhausted(Tag tag) {
+        rollover();
+        boolean exhausted = (dailyLimit > 0 && todayTokens >= dailyLimit)
+                || (chatDailyLimit > 0 && tag.chatId != NO_CHAT
+                && todayByChat.getOrDefault(tag.chatId, 0L) >= chatDailyLimit);
+        if (exhausted) degraded++;
+        return exhausted;
+    }
+
+    /** Сколько токенов чат потратил сегодня. */
+    public synchronized long getTodayTokens(long chatId) {
+        rollover();
+        return todayByChat.getOrDefault(chatId, 0L);
+    }
+
+    public synchronized long getTodayTokens() {
+        rollover();
+        return todayTokens;
+    }
+
+    private void rollover() {
+        String now = today();
+        if (now.equals(day)) return;
+        // приросты прошлого дня остаются в unsaved со своей датой и уйдут при flush
+        day = now;
+        todayTokens = 0;
+        todayByChat.clear();
+        todayBySite.clear();
+    }
+
+    private static String today() {
+        return LocalDate.now(ZoneOffset.UTC).toString();
+    }
+
+    /** Записать накопленные приросты; при ошибке они остаются до следующей попытки. */
+    public void flush() {
+        if (dao == null) return;
+        Map<Key, long[]> batch;
+        synchronized (this) {
+            if (unsaved.isEmpty()) return;
+            batch = new HashMap<>(unsaved);
+            unsaved.clear();
+        }
+        List<LlmUsageDao.Row> rows = new ArrayList<>(batch.size());
+        for (Map.Entry<Key, long[]> e : batch.entrySet()) {
+            Key k = e.getKey();
+            long[] u = e.getValue();
+            rows.add(new LlmUsageDao.Row(k.day(), k.chatId(), k.site(), u[0], u[1], u[2]));
+        }
+        try {
+            dao.addAll(rows);
+        } catch (Exception e) {
+            System.err.println("LLM usage flush failed: " + e.getMessage());
+            synchronized (this) {
+                for (Map.Entry<Key, long[]> b : batch.entrySet()) {
+                    long[] u = unsaved.computeIfAbsent(b.getKey(), k -> new long[3]);
+                    for (int i = 0; i < 3; i++) u[i] += b.getValue()[i];
+                }
+            }
+        }
+    }
+
+    /** Остановить периодическую запись и записать остаток. */
+    @Override
+    public void close() {
+        if (flusher != null) flusher.shutdown();
+        flush();
+    }
+
+    @Override
+    public synchronized String toString() {
+        rollover();
+        StringBuilder sb = new StringBuilder("Токены за ").append(day).append(": ").append(todayTokens);
+        if (dailyLimit > 0) sb.append('/').append(dailyLimit);
+        for (Map.Entry<String, long[]> e : todayBySite.entrySet()) {
+            long[] s = e.getValue();
+            sb.append(' ').append(e.getKey()).append(": calls=").append(s[0])
+                    .append(" prompt=").append(s[1])
+                    .append(" completion=").append(s[2]);
+        }
+        sb.append(" чатов=").append(todayByChat.size());
+        sb.append(" degraded=").append(degraded);
+        return sb.toString();
+    }
+}
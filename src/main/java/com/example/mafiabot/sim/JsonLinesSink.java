@@ -0,0 +1,51 @@
+package com.example.mafiabot.sim;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Пишет решения ботов в файл JSON Lines: одна строка — одно решение,
+ * поля как в training_data плюс номер партии, seed и раунд.
+ */
+public class JsonLinesSink implements SimulationSink {
+
+    private final BufferedWriter out;
+    private final Gson gson = new Gson();
+
+    public JsonLinesSink(Path file) throws IOException {
+        this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void accept(SimulatedGame game) throws IOException {
+        // строки партии собираем вне блокировки, под ней — только запись
+        StringBuilder sb = new StringBuilder();
+        for (SimulatedGame.Decision d : game.decisions) {
+            JsonObject row = new JsonObject();
+            row.addProperty("game", game.index);
+            row.addProperty("seed", game.seed);
+            row.addProperty("round", d.round);
+            row.addProperty("player_role", d.role.name());
+            row.add("state_snapshot", gson.toJsonTree(d.snapshot));
+            row.addProperty("action_taken", d.action);
+            row.addProperty("outcome", game.outcomeFor(d.role));
+            sb.append(gson.toJson(row)).append('\n');
+        }
+        synchronized (out) {
+            out.write(sb.toString());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (out) {
+            out.close();
+        }
+    }
+}
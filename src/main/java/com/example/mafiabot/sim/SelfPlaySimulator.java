@@ -0,0 +1,220 @@
+package com.example.mafiabot.sim;
+
+import com.example.mafiabot.game.AIPlayer;
+import com.example.mafiabot.game.BotStrategy;
+import com.example.mafiabot.game.GameManager;
+import com.example.mafiabot.game.Phase;
+import com.example.mafiabot.game.Player;
+import com.example.mafiabot.game.Role;
+import com.example.mafiabot.game.RoleDistribution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Партии только из ботов без Telegram, БД и LLM: GameManager + BotStrategy.
+ *
+ * Партии делятся между ядрами через fork-join. У каждой партии свой Random
+ * с seed, выведенным из базового seed и номера партии, поэтому любую партию
+ * можно воспроизвести отдельно (playOne), а результат прогона не зависит
+ * от числа потоков. Результаты уходят в SimulationSink.
+ */
+public class SelfPlaySimulator {
+
+    /** Сколько партий подряд играет один лист fork-join. */
+    private static final long GRAIN = 256;
+
+    private final int players;
+    private final RoleDistribution roles;
+    private final BotStrategy strategy;
+    private final SimulationSink sink;
+    private final long baseSeed;
+    private final int parallelism;
+    private final int maxRounds;
+
+    public SelfPlaySimulator(int players,
+                             RoleDistribution roles,
+                             BotStrategy strategy,
+                             SimulationSink sink,
+                             long baseSeed,
+                             int parallelism) {
+        if (players < RoleDistribution.MIN_PLAYERS || players > RoleDistribution.MAX_PLAYERS) {
+            throw new IllegalArgumentException("players must be in [" + RoleDistribution.MIN_PLAYERS +
+                    ", " + RoleDistribution.MAX_PLAYERS + "]: " + players);
+        }
+        this.players = players;
+        this.roles = roles;
+        this.strategy = strategy;
+        this.sink = sink;
+        this.baseSeed = baseSeed;
+        this.parallelism = parallelism;
+        // каждую ночь кто-то может умереть, так что партия длиннее players раундов — это зацикливание
+        this.maxRounds = players * 2;
+    }
+
+    /** Seed партии: SplitMix64 от базового seed и номера. */
+    public static long seedFor(long baseSeed, long index) {
+        long z = baseSeed + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Сыграть games партий с номерами 0..games-1. */
+    public SimulationReport run(long games) {
+        Totals totals = new Totals();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        long started = System.nanoTime();
+        try {
+            pool.invoke(new Batch(0, games, totals));
+        } finally {
+            pool.shutdown();
+        }
+        long elapsed = System.nanoTime() - started;
+        return new SimulationReport(games,
+                totals.mafiaWins.sum(),
+                totals.townWins.sum(),
+                totals.unfinished.sum(),
+                totals.rounds.sum(),
+                totals.sinkFailures.sum(),
+                elapsed);
+    }
+
+    /** Сыграть одну партию. Детерминирована: одинаковый index — одинаковая партия. */
+    public SimulatedGame playOne(long index) {
+        long seed = seedFor(baseSeed, index);
+        Random rnd = new Random(seed);
+        boolean record = sink.recordsDecisions();
+        List<SimulatedGame.Decision> decisions = record ? new ArrayList<>() : Collections.emptyList();
+
+        GameManager gm = new GameManager(rnd);
+        gm.setRoleDistribution(roles);
+        for (int i = 1; i <= players; i++) {
+            gm.joinPlayer(-i, "BOT_" + i);
+        }
+        gm.startGame();
+
+        String winner = null;
+        int round = 0;
+        long[] healed = new long[players];
+        while (winner == null && round < maxRounds) {
+            round++;
+
+            // НОЧЬ: мафия выбирает цель, доктора лечат, шерифы проверяют
+            List<Player> mafias = gm.getAliveWithRole(Role.MAFIA);
+            BotStrategy.Kill kill = mafias.isEmpty() ? null : strategy.chooseKill(gm, mafias.get(0), rnd);
+            if (kill != null && record) {
+                decisions.add(decision(gm, round, mafias.get(0), "chooseKill:" + kill.target.getUsername()));
+            }
+
+            int healedCount = 0;
+            for (Player doctor : gm.getAliveWithRole(Role.DOCTOR)) {
+                Player t = strategy.chooseHeal(gm, doctor, rnd);
+                if (t == null) continue;
+                healed[healedCount++] = t.getChatId();
+                if (record) decisions.add(decision(gm, round, doctor, "heal:" + t.getUsername()));
+            }
+            for (Player sheriff : gm.getAliveWithRole(Role.SHERIFF)) {
+                Player t = strategy.chooseCheck(gm, sheriff, rnd);
+                if (t != null && record) decisions.add(decision(gm, round, sheriff, "check:" + t.getUsername()));
+            }
+
+            if (kill != null && !contains(healed, healedCount, kill.target.getChatId())) {
+                gm.kill(kill.target.getChatId());
+            }
+            winner = gm.checkWinner();
+            if (winner != null) break;
+
+            // ДЕНЬ: голосуют все живые, казнят единоличного лидера
+            gm.setPhase(Phase.DAY);
+            for (Player p : gm.getPlayers()) {
+                if (!p.isAlive()) continue;
+                Player t = strategy.chooseDayVote(gm, p, rnd);
+                if (t == null) continue;
+                gm.castDayVote(p.getChatId(), t.getChatId());
+                if (record) decisions.add(decision(gm, round, p, "vote:" + t.getUsername()));
+            }
+            long lynch = gm.getDayLeaderId();
+            if (lynch != 0L) {
+                gm.kill(lynch);
+            }
+            gm.clearDayVotes();
+            winner = gm.checkWinner();
+            if (winner == null) {
+                gm.setPhase(Phase.NIGHT);
+            }
+        }
+        return new SimulatedGame(index, seed, players, winner, round, decisions);
+    }
+
+    private static SimulatedGame.Decision decision(GameManager gm, int round, Player p, String action) {
+        return new SimulatedGame.Decision(round, p.getChatId(), p.getRole(), action,
+                AIPlayer.GameStateSnapshot.fromManager(gm, p.getRole().name()));
+    }
+
+    private static boolean contains(long[] ids, int n, long id) {
+        for (int i = 0; i < n; i++) {
+            if (ids[i] == id) return true;
+        }
+        return false;
+    }
+
+    private static class Totals {
+        final LongAdder mafiaWins = new LongAdder();
+        final LongAdder townWins = new LongAdder();
+        final LongAdder unfinished = new LongAdder();
+        final LongAdder rounds = new LongAdder();
+        final LongAdder sinkFailures = new LongAdder();
+        final AtomicBoolean sinkErrorLogged = new AtomicBoolean();
+    }
+
+    /** Диапазон номеров партий [from, to); делится пополам, пока не станет не больше GRAIN. */
+    private class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final long from;
+        final long to;
+        final Totals totals;
+
+        Batch(long from, long to, Totals totals) {
+            this.from = from;
+            this.to = to;
+            this.totals = totals;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > GRAIN) {
+                long mid = (from + to) >>> 1;
+                invokeAll(new Batch(from, mid, totals), new Batch(mid, to, totals));
+                return;
+            }
+            long mafia = 0, town = 0, unfinished = 0, rounds = 0;
+            for (long i = from; i < to; i++) {
+                SimulatedGame g = playOne(i);
+                if ("MAFIA".equals(g.winner)) mafia++;
+                else if ("TOWN".equals(g.winner)) town++;
+                else unfinished++;
+                rounds += g.rounds;
+                try {
+                    sink.accept(g);
+                } catch (Exception e) {
+                    totals.sinkFailures.increment();
+                    if (totals.sinkErrorLogged.compareAndSet(false, true)) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            totals.mafiaWins.add(mafia);
+            totals.townWins.add(town);
+            totals.unfinished.add(unfinished);
+            totals.rounds.add(rounds);
+        }
+    }
+}
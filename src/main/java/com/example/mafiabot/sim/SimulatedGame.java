@@ -0,0 +1,54 @@
+package com.example.mafiabot.sim;
+
+import com.example.mafiabot.game.AIPlayer;
+import com.example.mafiabot.game.Role;
+
+import java.util.List;
+
+/**
+ * Итог одной симулированной партии.
+ */
+public class SimulatedGame {
+
+    /** Одно решение бота за партию — будущая строка training_data. */
+    public static class Decision {
+        public final int round;
+        public final long playerId;
+        public final Role role;
+        public final String action;
+        public final AIPlayer.GameStateSnapshot snapshot;
+
+        public Decision(int round, long playerId, Role role, String action, AIPlayer.GameStateSnapshot snapshot) {
+            this.round = round;
+            this.playerId = playerId;
+            this.role = role;
+            this.action = action;
+            this.snapshot = snapshot;
+        }
+    }
+
+    public final long index;
+    public final long seed;
+    public final int players;
+    /** "MAFIA", "TOWN" или null, если партия упёрлась в лимит раундов. */
+    public final String winner;
+    public final int rounds;
+    /** Пусто, если sink решения не записывает. */
+    public final List<Decision> decisions;
+
+    public SimulatedGame(long index, long seed, int players, String winner, int rounds, List<Decision> decisions) {
+        this.index = index;
+        this.seed = seed;
+        this.players = players;
+        this.winner = winner;
+        this.rounds = rounds;
+        this.decisions = decisions;
+    }
+
+    /** Исход для игрока с ролью role: win/lose, как в training_data; unknown без победителя. */
+    public String outcomeFor(Role role) {
+        if (winner == null) return "unknown";
+        boolean mafiaSide = role == Role.MAFIA;
+        return mafiaSide == winner.equals("MAFIA") ? "win" : "lose";
+    }
+}
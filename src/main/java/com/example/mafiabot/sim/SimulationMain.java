@@ -0,0 +1,44 @@
+package com.example.mafiabot.sim;
+
+import com.example.mafiabot.db.Database;
+import com.example.mafiabot.db.TrainingDataDao;
+import com.example.mafiabot.game.BasicBotStrategy;
+import com.example.mafiabot.game.RoleDistribution;
+
+import java.nio.file.Path;
+
+/**
+ * Запуск симуляций из командной строки:
+ *
+ *   SimulationMain [игр] [игроков] [seed] [sink]
+ *
+ * sink: none (по умолчанию, только статистика), db (training_data в mafia.db)
+ * или путь к файлу *.jsonl. Число потоков — SIM_THREADS, по умолчанию все ядра.
+ */
+public class SimulationMain {
+    public static void main(String[] args) throws Exception {
+        long games = args.length > 0 ? Long.parseLong(args[0]) : 100_000;
+        int players = args.length > 1 ? Integer.parseInt(args[1]) : 7;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        String sinkName = args.length > 3 ? args[3] : "none";
+        int threads = Integer.parseInt(System.getenv().getOrDefault("SIM_THREADS",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        SimulationSink sink;
+        if (sinkName.equals("none")) {
+            sink = SimulationSink.NONE;
+        } else if (sinkName.equals("db")) {
+            sink = new TrainingDataSink(new TrainingDataDao(new Database()), 5_000);
+        } else {
+            sink = new JsonLinesSink(Path.of(sinkName));
+        }
+
+        SelfPlaySimulator simulator = new SelfPlaySimulator(
+                players, RoleDistribution.STANDARD, new BasicBotStrategy(), sink, seed, threads);
+        try (sink) {
+            System.out.println("Simulating " + games + " games of " + players + " players on " + threads + " threads...");
+            SimulationReport report = simulator.run(games);
+            System.out.println(report);
+        }
+    }
+}
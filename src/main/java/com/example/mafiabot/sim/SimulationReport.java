@@ -0,0 +1,47 @@
+package com.example.mafiabot.sim;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сводка прогона симуляций.
+ */
+public class SimulationReport {
+    public final long games;
+    public final long mafiaWins;
+    public final long townWins;
+    /** Партии, упёршиеся в лимит раундов. */
+    public final long unfinished;
+    public final long totalRounds;
+    public final long sinkFailures;
+    public final long elapsedNanos;
+
+    SimulationReport(long games, long mafiaWins, long townWins, long unfinished,
+                     long totalRounds, long sinkFailures, long elapsedNanos) {
+        this.games = games;
+        this.mafiaWins = mafiaWins;
+        this.townWins = townWins;
+        this.unfinished = unfinished;
+        this.totalRounds = totalRounds;
+        this.sinkFailures = sinkFailures;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public double gamesPerSecond() {
+        return elapsedNanos > 0 ? games * 1e9 / elapsedNanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "games=%d mafia=%.1f%% town=%.1f%% unfinished=%d avgRounds=%.2f sinkFailures=%d time=%dms games/sec=%.0f",
+                games,
+                games > 0 ? 100.0 * mafiaWins / games : 0,
+                games > 0 ? 100.0 * townWins / games : 0,
+                unfinished,
+                games > 0 ? (double) totalRounds / games : 0,
+                sinkFailures,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                gamesPerSecond());
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.mafiabot.sim;
+
+import java.io.IOException;
+
+/**
+ * Куда складывать результаты симуляции.
+ *
+ * accept() вызывается из рабочих потоков fork-join параллельно,
+ * реализация должна быть потокобезопасной.
+ */
+public interface SimulationSink extends AutoCloseable {
+
+    /** Ничего не сохраняет — для оценки стратегий по одной статистике побед. */
+    SimulationSink NONE = new SimulationSink() {
+        @Override
+        public void accept(SimulatedGame game) {
+        }
+
+        @Override
+        public boolean recordsDecisions() {
+            return false;
+        }
+    };
+
+    void accept(SimulatedGame game) throws Exception;
+
+    /** Нужны ли sink отдельные решения ботов; если нет, симулятор их не собирает. */
+    default boolean recordsDecisions() {
+        return true;
+    }
+
+    /** Дописать накопленное. Не Exception: иначе try-with-resources ждёт и InterruptedException. */
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.mafiabot.sim;
+
+import com.example.mafiabot.db.TrainingDataDao;
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Пишет решения ботов в training_data пачками по batchSize строк.
+ *
+ * У симулированных партий нет строки в games, поэтому game_id — отрицательный
+ * номер партии (-1, -2, ...), а move_id = 0. Так их легко отличить от живых игр
+ * и отфильтровать. player_role — имя роли как есть (MAFIA, DOCTOR, ...), как
+ * и в JsonLinesSink: признак симуляции — только game_id, а не значение роли.
+ */
+public class TrainingDataSink implements SimulationSink {
+
+    private final TrainingDataDao dao;
+    private final int batchSize;
+    private final Gson gson = new Gson();
+    private final Object writeLock = new Object();
+    private List<TrainingDataDao.Row> buffer = new ArrayList<>();
+
+    public TrainingDataSink(TrainingDataDao dao, int batchSize) {
+        this.dao = dao;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void accept(SimulatedGame game) throws Exception {
+        List<TrainingDataDao.Row> rows = new ArrayList<>(game.decisions.size());
+        for (SimulatedGame.Decision d : game.decisions) {
+            rows.add(new TrainingDataDao.Row(
+                    -(game.index + 1),
+                    0,
+                    d.role.name(),
+                    gson.toJson(d.snapshot),
+                    d.action,
+                    game.outcomeFor(d.role)
+            ));
+        }
+
+        List<TrainingDataDao.Row> full = null;
+        synchronized (this) {
+            buffer.addAll(rows);
+            if (buffer.size() >= batchSize) {
+                full = buffer;
+                buffer = new ArrayList<>();
+            }
+        }
+        if (full != null) {
+            // SQLite всё равно пишет в один поток — пачки не конкурируют за блокировку файла
+            synchronized (writeLock) {
+                dao.insertTrainingRows(full);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        List<TrainingDataDao.Row> rest;
+        synchronized (this) {
+            rest = buffer;
+            buffer = new ArrayList<>();
+        }
+        synchronized (writeLock) {
+            try {
+                dao.insertTrainingRows(rest);
+            } catch (Exception e) {
+                throw new IOException("Failed to write last " + rest.size() + " training rows", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.mafiabot.telegram;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Раскладывает входящие задачи по очередям чатов.
+ *
+ * Внутри одного чата задачи выполняются строго по очереди (в порядке поступления),
+ * разные чаты обрабатываются параллельно. Медленная команда в одном чате
+ * (например, /endday с несколькими запросами к LLM) не задерживает остальные.
+ *
+ * Очередь чата живёт, пока в ней есть задачи: опустевшая очередь убирается из карты,
+ * иначе каждый когда-либо писавший чат держал бы её вечно. Постановка задачи и
+ * удаление очереди идут под блокировкой ключа карты (compute), поэтому задача не
+ * попадёт в уже убранную очередь.
+ *
+ * Поэтому и счётчики (сколько задач выполнено, сколько ждали и работали) общие
+ * на все чаты, а не в очереди: вместе с ней они бы обнулялись после каждой пачки.
+ * По отдельному чату доступна только текущая глубина очереди.
+ */
+public class ChatDispatcher {
+
+    private final Map<Long, ChatQueue> queues = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final LongAdder totalRunNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    public ChatDispatcher() {
+        this(Executors.newCachedThreadPool(new DispatcherThreadFactory()));
+    }
+
+    public ChatDispatcher(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /** Поставить задачу в очередь чата. */
+    public void submit(long chatId, Runnable task) {
+        Task t = new Task(task, System.nanoTime());
+        ChatQueue q = queues.compute(chatId, (id, existing) -> {
+            ChatQueue cq = existing != null ? existing : new ChatQueue(id);
+            cq.tasks.add(t);
+            return cq;
+        });
+        int depth = q.depth.incrementAndGet();
+        maxDepth.accumulateAndGet(depth, Math::max);
+        scheduleIfIdle(q);
+    }
+
+    private void scheduleIfIdle(ChatQueue q) {
+        if (q.running.compareAndSet(false, true)) {
+            executor.execute(() -> drain(q));
+        }
+    }
+
+    /**
+     * Выполняет задачи чата, пока очередь не опустеет.
+     * Флаг running гарантирует, что у чата не больше одного исполнителя.
+     */
+    private void drain(ChatQueue q) {
+        try {
+            Task t;
+            while ((t = q.tasks.poll()) != null) {
+                q.depth.decrementAndGet();
+                long started = System.nanoTime();
+                long waited = started - t.enqueuedAt;
+                totalWaitNanos.add(waited);
+                maxWaitNanos.accumulateAndGet(waited, Math::max);
+                try {
+                    t.runnable.run();
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                } finally {
+                    totalRunNanos.add(System.nanoTime() - started);
+                    processed.increment();
+                }
+            }
+        } finally {
+            q.running.set(false);
+            // задача могла прийти между последним poll() и сбросом флага
+            if (!q.tasks.isEmpty()) {
+                scheduleIfIdle(q);
+            } else {
+                // пусто и никто не выполняет — убираем; новая задача создаст очередь заново
+                queues.computeIfPresent(q.chatId, (id, current) ->
+                        current == q && q.tasks.isEmpty() && !q.running.get() ? null : current);
+            }
+        }
+    }
+
+    /** Сколько задач чата ждёт выполнения (0 — очереди у чата сейчас нет). */
+    public int getQueueDepth(long chatId) {
+        ChatQueue q = queues.get(chatId);
+        return q != null ? q.depth.get() : 0;
+    }
+
+    /** Статистика по всем чатам с момента запуска. */
+    public Stats getStats() {
+        long n = processed.sum();
+        long avgWait = n > 0 ? totalWaitNanos.sum() / n : 0;
+        long avgRun = n > 0 ? totalRunNanos.sum() / n : 0;
+        return new Stats(
+                queues.size(),
+                maxDepth.get(),
+                n,
+                TimeUnit.NANOSECONDS.toMillis(avgWait),
+                TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()),
+                TimeUnit.NANOSECONDS.toMillis(avgRun)
+        );
+    }
+
+    /** Остановить приём задач и дождаться выполнения уже поставленных. */
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Снимок статистики диспетчера.
+     */
+    public static class Stats {
+        public final int activeChats;
+        public final int maxQueueDepth;
+        public final long processed;
+        public final long avgWaitMillis;
+        public final long maxWaitMillis;
+        public final long avgRunMillis;
+
+        public Stats(int activeChats,
+                     int maxQueueDepth,
+                     long processed,
+                     long avgWaitMillis,
+                     long maxWaitMillis,
+                     long avgRunMillis) {
+            this.activeChats = activeChats;
+            this.maxQueueDepth = maxQueueDepth;
+            this.processed = processed;
+            this.avgWaitMillis = avgWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+            this.avgRunMillis = avgRunMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "activeChats=" + activeChats +
+                    " maxDepth=" + maxQueueDepth +
+                    " processed=" + processed +
+                    " avgWait=" + avgWaitMillis + "ms" +
+                    " maxWait=" + maxWaitMillis + "ms" +
+                    " avgRun=" + avgRunMillis + "ms";
+        }
+    }
+
+    private static class Task {
+        final Runnable runnable;
+        final long enqueuedAt;
+
+        Task(Runnable runnable, long enqueuedAt) {
+            this.runnable = runnable;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    private static class ChatQueue {
+        final long chatId;
+        final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean running = new AtomicBoolean(false);
+        final AtomicInteger depth = new AtomicInteger();
+
+        ChatQueue(long chatId) {
+            this.chatId = chatId;
+        }
+    }
+
+    /**
+     * Потоки-демоны с понятными именами. Проект собирается под Java 17,
+     * поэтому вместо виртуальных потоков — кэширующий пул: у каждого чата
+     * одновременно не больше одной задачи, простаивающие потоки освобождаются.
+     */
+    private static class DispatcherThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "chat-worker-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.mafiabot.telegram;
+
+import org.telegram.telegrambots.meta.api.objects.Message;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Таблица команд бота: имя команды → обработчик.
+ *
+ * Команда находится одним поиском в HashMap, аргументы разбираются вручную,
+ * без регулярных выражений. Поддерживается форма /cmd@BotName: если упомянут
+ * другой бот, сообщение игнорируется. По каждой команде считается число вызовов
+ * и время выполнения.
+ */
+public class CommandRouter {
+
+    /** Обработчик команды. */
+    @FunctionalInterface
+    public interface Handler {
+        void handle(Command cmd) throws Exception;
+    }
+
+    /**
+     * Разобранная команда: имя без упоминания бота и «хвост» с аргументами.
+     */
+    public static class Command {
+        public final Message message;
+        public final long chatId;
+        public final long fromId;
+        public final String name;
+        private final String text;
+        private final int argsStart;
+
+        Command(Message message, String name, String text, int argsStart) {
+            this.message = message;
+            this.chatId = message.getChatId();
+            this.fromId = message.getFrom().getId();
+            this.name = name;
+            this.text = text;
+            this.argsStart = argsStart;
+        }
+
+        /** Первый аргумент или null, если аргументов нет. */
+        public String firstArg() {
+            int n = text.length();
+            int i = argsStart;
+            while (i < n && Character.isWhitespace(text.charAt(i))) i++;
+            if (i == n) return null;
+            int j = i;
+            while (j < n && !Character.isWhitespace(text.charAt(j))) j++;
+            return text.substring(i, j);
+        }
+
+        /** Всё, что после имени команды, без крайних пробелов. */
+        public String args() {
+            return text.substring(argsStart).trim();
+        }
+    }
+
+    /**
+     * Снимок статистики одной команды.
+     */
+    public static class CommandStats {
+        public final String name;
+        public final long invocations;
+        public final long failures;
+        public final long avgMillis;
+        public final long maxMillis;
+
+        CommandStats(String name, long invocations, long failures, long avgMillis, long maxMillis) {
+            this.name = name;
+            this.invocations = invocations;
+            this.failures = failures;
+            this.avgMillis = avgMillis;
+            this.maxMillis = maxMillis;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": calls=" + invocations +
+                    " failed=" + failures +
+                    " avg=" + avgMillis + "ms" +
+                    " max=" + maxMillis + "ms";
+        }
+    }
+
+    private static class Entry {
+        final String name;
+        final Handler handler;
+        final LongAdder invocations = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        Entry(String name, Handler handler) {
+            this.name = name;
+            this.handler = handler;
+        }
+    }
+
+    private final Map<String, Entry> commands = new HashMap<>();
+    private final List<Entry> entries = new ArrayList<>();
+    private final String botUsername;
+
+    public CommandRouter(String botUsername) {
+        this.botUsername = botUsername;
+    }
+
+    /**
+     * Зарегистрировать команду и её алиасы (с ведущим '/').
+     * Алиасы делят статистику с основной командой.
+     * Регистрация — только при сборке бота, до первого route().
+     */
+    public CommandRouter register(String name, Handler handler, String... aliases) {
+        Entry e = new Entry(name, handler);
+        entries.add(e);
+        commands.put(name, e);
+        for (String alias : aliases) {
+            commands.put(alias, e);
+        }
+        return this;
+    }
+
+    /**
+     * Найти и выполнить команду.
+     * @return false, если текст не является нашей командой
+     */
+    public boolean route(Message msg) throws Exception {
+        String text = msg.getText();
+        int n = text.length();
+        int start = 0;
+        while (start < n && Character.isWhitespace(text.charAt(start))) start++;
+        if (start == n || text.charAt(start) != '/') return false;
+
+        int end = start;
+        int at = -1;
+        while (end < n && !Character.isWhitespace(text.charAt(end))) {
+            if (at < 0 && text.charAt(end) == '@') at = end;
+            end++;
+        }
+
+        String name;
+        if (at >= 0) {
+            // /cmd@OtherBot — не нам
+            int mentionLen = end - at - 1;
+            if (mentionLen != botUsername.length()
+                    || !text.regionMatches(true, at + 1, botUsername, 0, mentionLen)) {
+                return false;
+            }
+            name = text.substring(start, at);
+        } else {
+            name = text.substring(start, end);
+        }
+
+        Entry e = commands.get(name);
+        if (e == null) return false;
+
+        Command cmd = new Command(msg, e.name, text, end);
+        long t0 = System.nanoTime();
+        try {
+            e.handler.handle(cmd);
+        } catch (Exception ex) {
+            e.failures.increment();
+            throw ex;
+        } finally {
+            long took = System.nanoTime() - t0;
+            e.invocations.increment();
+            e.totalNanos.add(took);
+            e.maxNanos.accumulateAndGet(took, Math::max);
+        }
+        return true;
+    }
+
+    /** Статистика по всем командам в порядке регистрации. */
+    public List<CommandStats> getStats() {
+        List<CommandStats> out = new ArrayList<>(entries.size());
+        for (Entry e : entries) {
+            long calls = e.invocations.sum();
+            long avg = calls > 0 ? e.totalNanos.sum() / calls : 0;
+            out.add(new CommandStats(
+                    e.name,
+                    calls,
+                    e.failures.sum(),
+                    TimeUnit.NANOSECONDS.toMillis(avg),
+                    TimeUnit.NANOSECONDS.toMillis(e.maxNanos.get())
+            ));
+        }
+        return out;
+    }
+}
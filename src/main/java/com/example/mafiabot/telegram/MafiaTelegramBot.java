@@ -1,11 +1,13 @@
 package com.example.mafiabot.telegram;
 
 import com.example.mafiabot.game.GameController;
-import com.example.mafiabot.game.GameManager;
 import com.example.mafiabot.game.GameSession;
-import com.example.mafiabot.game.Player;
+import com.example.mafiabot.game.GameSnapshot;
+import com.example.mafiabot.game.Phase;
+import com.example.mafiabot.game.PhaseTimers;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
 import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
@@ -18,11 +20,44 @@ public class MafiaTelegramBot extends TelegramLongPollingBot {
     private final String botUsername;
     private final String botToken;
     private final GameController controller;
+    private final ChatDispatcher dispatcher;
+    private final OutboundMessageQueue outbound;
+    private final StreamingMessages streaming;
+    private final CommandRouter router;
 
     public MafiaTelegramBot(String botUsername, String botToken, GameController controller) {
+        this(botUsername, botToken, controller, new ChatDispatcher());
+    }
+
+    public MafiaTelegramBot(String botUsername,
+                            String botToken,
+                            GameController controller,
+                            ChatDispatcher dispatcher) {
         this.botUsername = botUsername;
         this.botToken = botToken;
         this.controller = controller;
+        this.dispatcher = dispatcher;
+        this.outbound = new OutboundMessageQueue(this::sendNow);
+        this.streaming = new StreamingMessages(this::editNow, outbound);
+        this.router = new CommandRouter(botUsername)
+                .register("/start", this::onStart)
+                .register("/join", this::onJoin)
+                .register("/addbots", this::onAddBots)
+                .register("/startgame", this::onStartGame)
+                .register("/vote", this::onVote, "/accuse")
+                .register("/endday", this::onEndDay)
+                .register("/majority", this::onMajority)
+                .register("/setroles", this::onSetRoles)
+                .register("/ai_move", this::onAiMove)
+                .register("/status", this::onStatus)
+                .register("/stats", this::onStats)
+                .register("/newgame", this::onNewGame);
+
+        // фазы по таймеру: срабатывание встаёт в очередь чата наравне с командами
+        PhaseTimers timers = controller.getPhaseTimers();
+        if (timers != null) {
+            timers.start(dispatcher::submit, this::onPhaseDeadline);
+        }
     }
 
     @Override
@@ -35,6 +70,14 @@ public class MafiaTelegramBot extends TelegramLongPollingBot {
         return botToken;
     }
 
+    public ChatDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Поток long polling только раскладывает апдейты по очередям чатов,
+     * сами команды выполняются в ChatDispatcher.
+     */
     @Override
     public void onUpdateReceived(Update update) {
         if (!update.hasMessage()) return;
@@ -42,131 +85,235 @@ public class MafiaTelegramBot extends TelegramLongPollingBot {
         Message msg = update.getMessage();
         if (msg.getText() == null) return;
 
-        long chatId = msg.getChatId();
-        long fromId = msg.getFrom().getId();
-        String text = msg.getText().trim();
+        dispatcher.submit(msg.getChatId(), () -> handleMessage(msg));
+    }
 
+    /** Обработка одного сообщения; вызывается последовательно в рамках чата. */
+    private void handleMessage(Message msg) {
         try {
-            // /start — краткая помощь
-            if (text.equals("/start")) {
-                send(chatId,
-                        "Привет! Это Мафия.\n" +
-                                "Команды:\n" +
-                                "/join - присоединиться к игре\n" +
-                                "/addbots N - добавить N ботов в игру\n" +
-                                "/startgame - начать игру (первая фаза: НОЧЬ)\n" +
-                                "/ai_move - ход мафии (НОЧЬ)\n" +
-                                "/accuse @username или /vote @username - голосовать за казнь (ДЕНЬ)\n" +
-                                "/endday - завершить день и подсчитать голоса\n" +
-                                "/status - состояние игроков и текущая фаза\n" +
-                                "/newgame - начать новую игру");
-
-                // /join
-            } else if (text.equals("/join")) {
-                String username = msg.getFrom().getUserName() != null
-                        ? msg.getFrom().getUserName()
-                        : msg.getFrom().getFirstName();
-                String reply = controller.handleJoin(chatId, fromId, username);
-                send(chatId, reply);
-
-                // /addbots N
-            } else if (text.startsWith("/addbots")) {
-                String[] parts = text.split("\\s+");
-                int count = 1;
-                if (parts.length >= 2) {
-                    try {
-                        count = Integer.parseInt(parts[1]);
-                    } catch (NumberFormatException e) {
-                        send(chatId, "Использование: /addbots N (например, /addbots 3)");
-                        return;
-                    }
-                }
-                String reply = controller.handleAddBots(chatId, count);
-                send(chatId, reply);
-
-                // /startgame
-            } else if (text.equals("/startgame")) {
-                String reply = controller.handleStartGame(chatId);
-                send(chatId, reply);
-
-                // рассылаем роли в личку каждому реальному игроку
-                GameSession session = controller.getSession(chatId);
-                if (session != null) {
-                    GameManager gm = session.getManager();
-                    for (Player p : gm.getPlayers()) {
-                        if (p.getChatId() > 0) { // только настоящие Telegram-пользователи
-                            send(p.getChatId(), "Твоя роль: " + p.getRole());
-                        }
-                    }
-                }
+            router.route(msg);
+        } catch (Exception e) {
+            e.printStackTrace();
+            send(msg.getChatId(), "Ошибка: " + e.getMessage());
+        }
+    }
 
-                // /accuse и /vote — голосование днём
-            } else if (text.startsWith("/accuse") || text.startsWith("/vote")) {
-                String[] parts = text.split("\\s+");
-                if (parts.length < 2) {
-                    send(chatId, "Укажи цель: /vote @username");
-                    return;
-                }
-                String targetName = parts[1].replace("@", "");
-                String reply = controller.handleVote(chatId, fromId, targetName);
-                send(chatId, reply);
-
-                // /endday — завершить день и подсчитать голоса
-            } else if (text.equals("/endday")) {
-                String reply = controller.handleEndDay(chatId);
-                send(chatId, reply);
-
-                // /ai_move — ход мафии ночью
-            } else if (text.equals("/ai_move")) {
-                String reply = controller.handleAiMove(chatId);
-                send(chatId, reply);
-
-                // /status — фаза + список игроков, роли скрыты до конца игры
-            } else if (text.equals("/status")) {
-                GameSession session = controller.getSession(chatId);
-                if (session == null) {
-                    send(chatId, "Игра ещё не создана.");
-                    return;
-                }
-                GameManager gm = session.getManager();
-                boolean revealRoles = gm.isFinished(); // роли открываем только после окончания игры
-
-                StringBuilder sb = new StringBuilder();
-                sb.append("Фаза: ").append(gm.getPhase()).append("\n");
-                sb.append("Игроки:\n");
-                for (Player p : gm.getPlayers()) {
-                    String roleStr;
-                    if (revealRoles || p.getChatId() == fromId) {
-                        roleStr = String.valueOf(p.getRole());
-                    } else {
-                        roleStr = "???";
-                    }
-                    sb.append(p.getUsername())
-                            .append(" - ").append(roleStr)
-                            .append(" - ").append(p.isAlive() ? "alive" : "dead")
-                            .append("\n");
-                }
-                send(chatId, sb.toString());
+    /** Время фазы вышло — делаем то же, что /ai_move или /endday. */
+    private void onPhaseDeadline(long chatId, Phase phase) throws Exception {
+        if (phase == Phase.NIGHT) {
+            streamAiMove(chatId, "Время ночи вышло.\n");
+            return;
+        }
+        send(chatId, "Время дня вышло.\n" + controller.handleEndDay(chatId));
+    }
+
+    // ===== Обработчики команд =====
 
-                // /newgame — новая партия
-            } else if (text.equals("/newgame")) {
-                String reply = controller.handleNewGame(chatId);
-                send(chatId, reply);
+    /** /start — краткая помощь */
+    private void onStart(CommandRouter.Command cmd) {
+        send(cmd.chatId,
+                "Привет! Это Мафия.\n" +
+                        "Команды:\n" +
+                        "/join - присоединиться к игре\n" +
+                        "/addbots N - добавить N ботов в игру\n" +
+                        "/startgame - начать игру (первая фаза: НОЧЬ)\n" +
+                        "/setroles mafia=0.25 doctor=0.1 sheriff=0.1 - доли ролей этого чата\n" +
+                        "/ai_move - ход мафии (НОЧЬ)\n" +
+                        "/accuse @username или /vote @username - голосовать за казнь (ДЕНЬ)\n" +
+                        "/endday - завершить день и подсчитать голоса\n" +
+                        "/majority on|off - заканчивать день досрочно при большинстве голосов\n" +
+                        "/status - состояние игроков и текущая фаза\n" +
+                        "/newgame - начать новую игру\n" +
+                        "/stats - статистика очередей и отправки сообщений");
+    }
+
+    /** /join */
+    private void onJoin(CommandRouter.Command cmd) throws Exception {
+        Message msg = cmd.message;
+        String username = msg.getFrom().getUserName() != null
+                ? msg.getFrom().getUserName()
+                : msg.getFrom().getFirstName();
+        send(cmd.chatId, controller.handleJoin(cmd.chatId, cmd.fromId, username));
+    }
+
+    /** /addbots N */
+    private void onAddBots(CommandRouter.Command cmd) throws Exception {
+        String arg = cmd.firstArg();
+        int count = 1;
+        if (arg != null) {
+            try {
+                count = Integer.parseInt(arg);
+            } catch (NumberFormatException e) {
+                send(cmd.chatId, "Использование: /addbots N (например, /addbots 3)");
+                return;
             }
+        }
+        send(cmd.chatId, controller.handleAddBots(cmd.chatId, count));
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            send(chatId, "Ошибка: " + e.getMessage());
+    /** /startgame */
+    private void onStartGame(CommandRouter.Command cmd) throws Exception {
+        send(cmd.chatId, controller.handleStartGame(cmd.chatId));
+
+        // рассылаем роли в личку каждому реальному игроку — через общую очередь отправки
+        GameSession session = controller.getSession(cmd.chatId);
+        if (session != null) {
+            for (GameSnapshot.PlayerInfo p : session.getManager().snapshot().getPlayers()) {
+                if (p.getChatId() > 0) { // только настоящие Telegram-пользователи
+                    send(p.getChatId(), "Твоя роль: " + p.getRole());
+                }
+            }
         }
     }
 
-    /** Отправка текста. */
-    private void send(long chatId, String text) {
-        SendMessage sm = new SendMessage(String.valueOf(chatId), text);
+    /** /vote и /accuse — голосование днём */
+    private void onVote(CommandRouter.Command cmd) throws Exception {
+        String target = cmd.firstArg();
+        if (target == null) {
+            send(cmd.chatId, "Укажи цель: /vote @username");
+            return;
+        }
+        String targetName = target.charAt(0) == '@' ? target.substring(1) : target;
+        send(cmd.chatId, controller.handleVote(cmd.chatId, cmd.fromId, targetName));
+    }
+
+    /** /endday — завершить день и подсчитать голоса */
+    private void onEndDay(CommandRouter.Command cmd) throws Exception {
+        send(cmd.chatId, controller.handleEndDay(cmd.chatId));
+    }
+
+    /** /majority on|off — досрочное окончание дня при большинстве */
+    private void onMajority(CommandRouter.Command cmd) throws Exception {
+        String arg = cmd.firstArg();
+        if (!"on".equalsIgnoreCase(arg) && !"off".equalsIgnoreCase(arg)) {
+            send(cmd.chatId, "Использование: /majority on или /majority off");
+            return;
+        }
+        send(cmd.chatId, controller.handleSetMajorityEndsDay(cmd.chatId, "on".equalsIgnoreCase(arg)));
+    }
+
+    /** /setroles — доли ролей чата */
+    private void onSetRoles(CommandRouter.Command cmd) throws Exception {
+        send(cmd.chatId, controller.handleSetRoles(cmd.chatId, cmd.args()));
+    }
+
+    /** /ai_move — ход мафии ночью */
+    private void onAiMove(CommandRouter.Command cmd) throws Exception {
+        streamAiMove(cmd.chatId, "");
+    }
+
+    /**
+     * Ночной ход с потоковым объяснением: заглушка уходит сразу и правится по мере того,
+     * как LLM пишет объяснение мафии; в конце в сообщении — итоги ночи.
+     * Если сейчас не ночь или игра окончена, заглушку не шлём: отказ — обычным сообщением.
+     */
+    private void streamAiMove(long chatId, String prefix) throws Exception {
+        GameSession session = controller.getSession(chatId);
+        GameSnapshot game = session != null ? session.getManager().snapshot() : null;
+        if (game == null || game.isFinished() || game.getPhase() != Phase.NIGHT) {
+            send(chatId, prefix + controller.handleAiMove(chatId));
+            return;
+        }
+        StreamingMessages.Stream stream = streaming.open(chatId, prefix + "Ночь… ИИ думает.");
+        String result;
         try {
-            execute(sm);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
+            result = controller.handleAiMove(chatId, draft -> stream.update(prefix + draft));
+        } catch (Exception e) {
+            stream.finish(prefix + "Ночной ход не удался.");
+            throw e;
+        }
+        stream.finish(prefix + result);
+    }
+
+    /** /status — фаза + список игроков, роли скрыты до конца игры */
+    private void onStatus(CommandRouter.Command cmd) throws Exception {
+        GameSession session = controller.getSession(cmd.chatId);
+        if (session == null) {
+            send(cmd.chatId, "Игра ещё не создана.");
+            return;
+        }
+        // один согласованный снимок: фаза, роли и «жив» — на одну и ту же версию игры
+        GameSnapshot game = session.getManager().snapshot();
+        boolean revealRoles = game.isFinished(); // роли открываем только после окончания игры
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Фаза: ").append(game.getPhase());
+        PhaseTimers timers = controller.getPhaseTimers();
+        long secondsLeft = timers != null ? timers.getSecondsLeft(cmd.chatId) : -1;
+        if (secondsLeft >= 0) {
+            sb.append(" (до конца: ").append(secondsLeft).append(" с)");
         }
+        sb.append("\n");
+        sb.append("Игроки:\n");
+        for (GameSnapshot.PlayerInfo p : game.getPlayers()) {
+            String roleStr;
+            if (revealRoles || p.getChatId() == cmd.fromId) {
+                roleStr = String.valueOf(p.getRole());
+            } else {
+                roleStr = "???";
+            }
+            sb.append(p.getUsername())
+                    .append(" - ").append(roleStr)
+                    .append(" - ").append(p.isAlive() ? "alive" : "dead")
+                    .append("\n");
+        }
+        send(cmd.chatId, sb.toString());
+    }
+
+    /** /stats — очередь этого чата, общие счётчики очередей, исходящие сообщения и счётчики команд */
+    private void onStats(CommandRouter.Command cmd) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Очередь чата: depth=").append(dispatcher.getQueueDepth(cmd.chatId))
+                .append("\nКоманды (все чаты): ").append(dispatcher.getStats())
+                .append("\nИсходящие: sent=").append(outbound.getSentCount())
+                .append(" coalesced=").append(outbound.getCoalescedCount())
+                .append(" 429=").append(outbound.getRateLimitedCount())
+                .append(" dropped=").append(outbound.getDroppedCount())
+                .append("\nПравки: edits=").append(streaming.getEditCount())
+                .append(" superseded=").append(streaming.getSupersededCount())
+                .append(" 429=").append(streaming.getRateLimitedCount())
+                .append("\nСессии: resident=").append(controller.getSessions().size())
+                .append(" evicted=").append(controller.getSessions().getEvictionCount())
+                .append(" reloaded=").append(controller.getSessions().getReloadCount())
+                .append(" checkpoints=").append(controller.getSessions().getCheckpointCount());
+        PhaseTimers timers = controller.getPhaseTimers();
+        if (timers != null) {
+            sb.append("\nТаймеры фаз: ").append(timers.size());
+        }
+        String llmStats = controller.getLlmStats();
+        if (llmStats != null) {
+            sb.append("\n").append(llmStats);
+        }
+        sb.append("\nКоманды:");
+        for (CommandRouter.CommandStats cs : router.getStats()) {
+            if (cs.invocations > 0) {
+                sb.append("\n").append(cs);
+            }
+        }
+        send(cmd.chatId, sb.toString());
+    }
+
+    /** /newgame — новая партия */
+    private void onNewGame(CommandRouter.Command cmd) throws Exception {
+        send(cmd.chatId, controller.handleNewGame(cmd.chatId));
+    }
+
+    /** Отправка текста: ставим в очередь, лимиты и повторы — забота OutboundMessageQueue. */
+    private void send(long chatId, String text) {
+        outbound.send(chatId, text);
+    }
+
+    /** Непосредственный вызов Telegram API; используется только очередью отправки. */
+    private int sendNow(long chatId, String text) throws TelegramApiException {
+        return execute(new SendMessage(String.valueOf(chatId), text)).getMessageId();
+    }
+
+    /** Правка уже отправленного сообщения; используется только StreamingMessages. */
+    private void editNow(long chatId, int messageId, String text) throws TelegramApiException {
+        EditMessageText edit = new EditMessageText();
+        edit.setChatId(String.valueOf(chatId));
+        edit.setMessageId(messageId);
+        edit.setText(text);
+        execute(edit);
     }
 }
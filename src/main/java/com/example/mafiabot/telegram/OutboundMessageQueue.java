@@ -0,0 +1,287 @@
+package com.example.mafiabot.telegram;
+
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Асинхронная очередь исходящих сообщений с учётом лимитов Telegram:
+ *  - глобально около 30 сообщений в секунду;
+ *  - в группу около 20 сообщений в минуту, в личку около 1 в секунду.
+ *
+ * У каждого чата своя очередь и свой token bucket, плюс общий bucket на всех.
+ * Несколько текстов, накопившихся для одного чата, склеиваются в одно сообщение.
+ * На 429 чат ставится на паузу на retry_after секунд, текст возвращается в начало очереди.
+ *
+ * Сообщение, чей message_id нужен отправителю (например, чтобы потом его править),
+ * ставится через send(chatId, text, onSent): оно идёт в общей очереди чата, но ни с чем
+ * не склеивается.
+ *
+ * Очередь чата убирается из карты, когда она пуста, а её bucket снова полон и пауза
+ * после 429 кончилась: такая очередь ничем не отличается от новой, и лимиты чата при
+ * пересоздании не нарушаются. Постановка текста и удаление очереди идут под блокировкой
+ * ключа карты (compute), поэтому текст не попадёт в уже убранную очередь.
+ */
+public class OutboundMessageQueue {
+
+    /** Фактическая отправка одного сообщения. */
+    public interface Transport {
+        /** @return message_id отправленного сообщения */
+        int send(long chatId, String text) throws TelegramApiException;
+    }
+
+    static final int MAX_MESSAGE_LENGTH = 4096;
+    private static final String SEPARATOR = "\n\n";
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private final Transport transport;
+    private final TokenBucket global = new TokenBucket(30, 30, 1, TimeUnit.SECONDS);
+    private final Map<Long, Outbox> outboxes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService workers;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public OutboundMessageQueue(Transport transport) {
+        this(transport, 4);
+    }
+
+    /**
+     * @param concurrency сколько сообщений может отправляться одновременно
+     */
+    public OutboundMessageQueue(Transport transport, int concurrency) {
+        this.transport = transport;
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = Executors.newScheduledThreadPool(concurrency, r -> {
+            Thread t = new Thread(r, "outbound-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Поставить сообщение в очередь чата. Не блокирует. */
+    public void send(long chatId, String text) {
+        send(chatId, text, null);
+    }
+
+    /**
+     * То же, но onSent получит message_id отправленного сообщения (первого куска, если
+     * текст длиннее лимита) или null, если оно так и не ушло. Вызывается в потоке очереди.
+     */
+    public void send(long chatId, String text, Consumer<Integer> onSent) {
+        if (text == null || text.isEmpty()) {
+            if (onSent != null) report(onSent, null);
+            return;
+        }
+        outboxes.compute(chatId, (id, existing) -> {
+            Outbox o = existing != null ? existing : new Outbox(id);
+            synchronized (o) {
+                // длинные тексты режем сразу, чтобы дальше работать только с допустимыми кусками
+                for (int i = 0; i < text.length(); i += MAX_MESSAGE_LENGTH) {
+                    o.pending.addLast(new Pending(text.substring(i, Math.min(text.length(), i + MAX_MESSAGE_LENGTH)),
+                            i == 0 ? onSent : null));
+                }
+                if (!o.scheduled) {
+                    o.scheduled = true;
+                    workers.execute(() -> drain(o));
+                }
+            }
+            return o;
+        });
+    }
+
+    /**
+     * Отправить одно (возможно склеенное) сообщение чата.
+     * У чата одновременно не больше одной задачи drain, поэтому порядок сохраняется.
+     */
+    private void drain(Outbox o) {
+        long now = System.nanoTime();
+        long wait = Math.max(0, o.pausedUntil - now);
+        if (wait == 0) {
+            wait = o.bucket.nanosUntilAvailable(now);
+        }
+        if (wait == 0) {
+            wait = global.tryAcquire(now);
+        }
+        if (wait > 0) {
+            workers.schedule(() -> drain(o), wait, TimeUnit.NANOSECONDS);
+            return;
+        }
+        o.bucket.tryAcquire(now);
+
+        Pending msg;
+        synchronized (o) {
+            msg = takeCoalesced(o);
+        }
+
+        long retryDelayNanos = 0;
+        try {
+            int messageId = transport.send(o.chatId, msg.text);
+            sent.incrementAndGet();
+            if (msg.onSent != null) report(msg.onSent, messageId);
+        } catch (TelegramApiRequestException e) {
+            Integer code = e.getErrorCode();
+            if (code != null && code == 429) {
+                rateLimited.incrementAndGet();
+                Integer retryAfter = e.getParameters() != null ? e.getParameters().getRetryAfter() : null;
+                long seconds = retryAfter != null ? retryAfter : 1;
+                o.pausedUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+                retryDelayNanos = TimeUnit.SECONDS.toNanos(seconds);
+                synchronized (o) {
+                    o.pending.addFirst(msg);
+                }
+            } else {
+                // 400/403 и т.п. — повтор не поможет
+                dropped(msg);
+                System.err.println("Telegram send failed for chat " + o.chatId + ": " + e.getMessage());
+            }
+        } catch (TelegramApiException e) {
+            // сетевые ошибки — несколько повторов с паузой
+            if (++msg.attempts < MAX_ATTEMPTS) {
+                retryDelayNanos = TimeUnit.MILLISECONDS.toNanos(RETRY_DELAY_MS);
+                synchronized (o) {
+                    o.pending.addFirst(msg);
+                }
+            } else {
+                dropped(msg);
+                e.printStackTrace();
+            }
+        } catch (RuntimeException e) {
+            // ошибка в самой отправке (не ответ Telegram) — повтор вряд ли поможет
+            dropped(msg);
+            e.printStackTrace();
+        } finally {
+            // что бы ни случилось выше, очередь чата не должна остаться без drain
+            synchronized (o) {
+                if (o.pending.isEmpty()) {
+                    o.scheduled = false;
+                    workers.schedule(() -> retire(o), o.nanosUntilIdle(System.nanoTime()), TimeUnit.NANOSECONDS);
+                } else if (retryDelayNanos > 0) {
+                    workers.schedule(() -> drain(o), retryDelayNanos, TimeUnit.NANOSECONDS);
+                } else {
+                    workers.execute(() -> drain(o));
+                }
+            }
+        }
+    }
+
+    /**
+     * Убрать опустевшую очередь чата. Если к этому моменту в неё снова писали или bucket
+     * ещё не восполнился, очередь остаётся: следующий опустевший drain запланирует retire заново.
+     */
+    private void retire(Outbox o) {
+        outboxes.computeIfPresent(o.chatId, (id, current) -> {
+            if (current != o) return current;
+            synchronized (o) {
+                return o.pending.isEmpty() && !o.scheduled && o.nanosUntilIdle(System.nanoTime()) == 0 ? null : o;
+            }
+        });
+    }
+
+    private void dropped(Pending msg) {
+        dropped.incrementAndGet();
+        if (msg.onSent != null) report(msg.onSent, null);
+    }
+
+    /** Сообщить отправителю message_id; его ошибки не должны ломать очередь. */
+    private static void report(Consumer<Integer> onSent, Integer messageId) {
+        try {
+            onSent.accept(messageId);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Забрать из очереди первый текст и приклеить к нему следующие, пока влезает в лимит.
+     * Отслеживаемые сообщения (с onSent) не склеиваются ни с чем.
+     */
+    private Pending takeCoalesced(Outbox o) {
+        Pending first = o.pending.pollFirst();
+        Pending next = o.pending.peekFirst();
+        if (first.onSent != null || !canAppend(first.text.length(), next)) {
+            return first;
+        }
+        StringBuilder sb = new StringBuilder(first.text);
+        int attempts = first.attempts;
+        while (canAppend(sb.length(), next)) {
+            o.pending.pollFirst();
+            sb.append(SEPARATOR).append(next.text);
+            attempts = Math.max(attempts, next.attempts);
+            coalesced.incrementAndGet();
+            next = o.pending.peekFirst();
+        }
+        Pending merged = new Pending(sb.toString(), null);
+        merged.attempts = attempts;
+        return merged;
+    }
+
+    private static boolean canAppend(int length, Pending next) {
+        return next != null && next.onSent == null
+                && length + SEPARATOR.length() + next.text.length() <= MAX_MESSAGE_LENGTH;
+    }
+
+    public long getSentCount() { return sent.get(); }
+    public long getCoalescedCount() { return coalesced.get(); }
+    public long getRateLimitedCount() { return rateLimited.get(); }
+    public long getDroppedCount() { return dropped.get(); }
+
+    /** Сколько сообщений ждёт отправки в чат. */
+    public int getPendingCount(long chatId) {
+        Outbox o = outboxes.get(chatId);
+        if (o == null) return 0;
+        synchronized (o) {
+            return o.pending.size();
+        }
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    private static class Pending {
+        final String text;
+        final Consumer<Integer> onSent; // null — message_id никому не нужен
+        int attempts;
+
+        Pending(String text, Consumer<Integer> onSent) {
+            this.text = text;
+            this.onSent = onSent;
+        }
+    }
+
+    private static class Outbox {
+        final long chatId;
+        final Deque<Pending> pending = new ArrayDeque<>();
+        final TokenBucket bucket;
+        boolean scheduled;
+        volatile long pausedUntil;
+
+        Outbox(long chatId) {
+            this.chatId = chatId;
+            this.pausedUntil = System.nanoTime();
+            // отрицательный id — группа, положительный — личный чат
+            this.bucket = chatId < 0
+                    ? new TokenBucket(3, 20, 1, TimeUnit.MINUTES)
+                    : new TokenBucket(1, 1, 1, TimeUnit.SECONDS);
+        }
+
+        /** Через сколько очередь станет неотличима от новой: пауза кончилась, bucket полон. */
+        long nanosUntilIdle(long now) {
+            return Math.max(Math.max(0, pausedUntil - now), bucket.nanosUntilFull(now));
+        }
+    }
+}
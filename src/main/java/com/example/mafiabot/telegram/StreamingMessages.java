@@ -0,0 +1,202 @@
+package com.example.mafiabot.telegram;
+
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Сообщения, которые дописываются по мере генерации текста (потоковый ответ LLM).
+ *
+ * open() ставит заглушку в очередь чата, update() запоминает свежий черновик, а правка
+ * сообщения уходит не чаще раза в интервал: в личку — раз в секунду, в группу — раз
+ * в 3 секунды (лимиты Telegram те же, что у обычных сообщений). Черновики, не успевшие
+ * уйти, заменяются более свежими. finish() отправляет окончательный текст — тоже
+ * с учётом интервала. На 429 правки ждут retry_after.
+ *
+ * Заглушка идёт через OutboundMessageQueue — с её лимитами и после сообщений, уже
+ * стоящих в очереди чата; правки начинаются, когда она отправлена. Правки идут в одном
+ * потоке, поэтому не обгоняют друг друга. Если заглушку отправить не удалось,
+ * окончательный текст уходит обычным сообщением через ту же очередь.
+ */
+public class StreamingMessages {
+
+    /** Правка отправленного сообщения через Telegram API. */
+    public interface Transport {
+        void edit(long chatId, int messageId, String text) throws TelegramApiException;
+    }
+
+    private static final long PRIVATE_INTERVAL_MS = 1000;
+    private static final long GROUP_INTERVAL_MS = 3000;
+
+    private final Transport transport;
+    private final OutboundMessageQueue outbound;
+    private final ScheduledExecutorService worker;
+
+    private final AtomicLong edits = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+
+    public StreamingMessages(Transport transport, OutboundMessageQueue outbound) {
+        this.transport = transport;
+        this.outbound = outbound;
+        this.worker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "streaming-edits");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Поставить заглушку в очередь; дальше сообщение правится через update()/finish(). */
+    public Stream open(long chatId, String placeholder) {
+        Stream s = new Stream(chatId, placeholder);
+        outbound.send(chatId, placeholder, messageId -> worker.execute(() -> s.posted(messageId)));
+        return s;
+    }
+
+    public long getEditCount() { return edits.get(); }
+    public long getSupersededCount() { return superseded.get(); }
+    public long getRateLimitedCount() { return rateLimited.get(); }
+
+    public void shutdown() {
+        worker.shutdown();
+    }
+
+    /** Одно дописываемое сообщение. */
+    public final class Stream {
+        private final long chatId;
+        private final String placeholder;
+        private final long intervalNanos;
+
+        // поля ниже меняются под локом объекта
+        private String latest;
+        private boolean finished;
+        private boolean scheduled;
+        private long nextEditAt;
+
+        // только в потоке worker
+        private boolean posting = true; // заглушка ещё в очереди отправки
+        private Integer messageId;      // null — заглушки нет (не отправлена)
+        private String shown;
+
+        private Stream(long chatId, String placeholder) {
+            this.chatId = chatId;
+            this.placeholder = placeholder;
+            this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(chatId < 0 ? GROUP_INTERVAL_MS : PRIVATE_INTERVAL_MS);
+            this.nextEditAt = System.nanoTime() + intervalNanos;
+        }
+
+        /** Новый черновик целиком (не приращение). */
+        public synchronized void update(String text) {
+            if (finished || text == null) return;
+            if (latest != null && scheduled) superseded.incrementAndGet();
+            latest = text;
+            schedule();
+        }
+
+        /** Окончательный текст; последующие update() игнорируются. */
+        public synchronized void finish(String text) {
+            if (finished) return;
+            finished = true;
+            latest = text;
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled) return;
+            scheduled = true;
+            worker.schedule(this::flush, Math.max(0, nextEditAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+
+        /** Заглушка отправлена (id) или не ушла (null); накопленный черновик — следом. */
+        private void posted(Integer id) {
+            posting = false;
+            messageId = id;
+            if (id != null) {
+                shown = placeholder;
+            } else {
+                System.err.println("Telegram placeholder failed for chat " + chatId);
+            }
+            synchronized (this) {
+                if (latest != null && !latest.equals(shown)) schedule();
+            }
+        }
+
+        private void flush() {
+            if (posting) {
+                // править ещё нечего; posted() запланирует flush заново
+                synchronized (this) {
+                    scheduled = false;
+                }
+                return;
+            }
+
+            String text;
+            boolean last;
+            synchronized (this) {
+                text = latest;
+                last = finished;
+            }
+
+            long delayNanos = intervalNanos;
+            try {
+                if (text != null && !text.equals(shown)) {
+                    if (messageId == null) {
+                        if (last) outbound.send(chatId, text);
+                        shown = text;
+                    } else {
+                        delayNanos = edit(text, last);
+                    }
+                }
+            } catch (RuntimeException e) {
+                // этот черновик не показать; не повторяем его бесконечно
+                e.printStackTrace();
+                shown = text;
+            } finally {
+                // иначе поток застрянет с scheduled = true и итог так и не покажется
+                synchronized (this) {
+                    nextEditAt = System.nanoTime() + delayNanos;
+                    scheduled = false;
+                    if (!Objects.equals(latest, shown)) schedule();
+                }
+            }
+        }
+
+        /** @return сколько ждать до следующей правки */
+        private long edit(String text, boolean last) {
+            int max = OutboundMessageQueue.MAX_MESSAGE_LENGTH;
+            try {
+                transport.edit(chatId, messageId, text.length() > max ? text.substring(0, max) : text);
+                edits.incrementAndGet();
+                shown = text;
+                if (last && text.length() > max) {
+                    outbound.send(chatId, text.substring(max));
+                }
+            } catch (TelegramApiRequestException e) {
+                Integer code = e.getErrorCode();
+                if (code != null && code == 429) {
+                    rateLimited.incrementAndGet();
+                    Integer retryAfter = e.getParameters() != null ? e.getParameters().getRetryAfter() : null;
+                    return TimeUnit.SECONDS.toNanos(retryAfter != null ? retryAfter : 1);
+                }
+                // 400 и т.п. — правка не пройдёт и потом; окончательный текст шлём отдельно
+                System.err.println("Telegram edit failed for chat " + chatId + ": " + e.getMessage());
+                giveUp(text, last);
+            } catch (TelegramApiException | RuntimeException e) {
+                e.printStackTrace();
+                giveUp(text, last);
+            }
+            return intervalNanos;
+        }
+
+        private void giveUp(String text, boolean last) {
+            messageId = null;
+            if (last) outbound.send(chatId, text);
+            shown = text;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.mafiabot.telegram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Простой token bucket: capacity жетонов, пополняется равномерно.
+ * Время передаётся снаружи (System.nanoTime()), чтобы все проверки в одном проходе
+ * шли по одному и тому же моменту.
+ */
+class TokenBucket {
+
+    private final double capacity;
+    private final double refillPerNano;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param capacity сколько сообщений можно отправить подряд
+     * @param permits  сколько жетонов восстанавливается за period
+     */
+    TokenBucket(int capacity, int permits, long period, TimeUnit unit) {
+        this.capacity = capacity;
+        this.refillPerNano = (double) permits / unit.toNanos(period);
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /** Через сколько наносекунд появится жетон (0 — уже есть). Жетон не тратится. */
+    synchronized long nanosUntilAvailable(long now) {
+        refill(now);
+        return tokens >= 1 ? 0 : nanosToOneToken();
+    }
+
+    /** Взять жетон. 0 — взят, иначе — сколько ждать до следующей попытки. */
+    synchronized long tryAcquire(long now) {
+        refill(now);
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return nanosToOneToken();
+    }
+
+    /** Через сколько наносекунд bucket снова будет полным (0 — уже полон). */
+    synchronized long nanosUntilFull(long now) {
+        refill(now);
+        return tokens >= capacity ? 0 : (long) Math.ceil((capacity - tokens) / refillPerNano);
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + elapsed * refillPerNano);
+            lastRefill = now;
+        }
+    }
+
+    private long nanosToOneToken() {
+        return (long) Math.ceil((1 - tokens) / refillPerNano);
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.mafiabot.telegram;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Встроенный HTTP-эндпоинт для режима webhook (альтернатива long polling).
+ *
+ * Принимает POST с JSON апдейта, разбирает его потоково прямо из тела запроса
+ * и сразу отдаёт в ту же обработку, что и long polling (onUpdateReceived →
+ * очереди чатов). Ответ 200 уходит сразу, команда выполняется уже асинхронно.
+ *
+ * Локальная проверка без Telegram:
+ * <pre>
+ * curl -X POST -H 'Content-Type: application/json' \
+ *      --data @update.json http://localhost:8080/telegram/webhook
+ * </pre>
+ */
+public class WebhookServer {
+
+    static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    private final HttpServer server;
+    private final ExecutorService ioExecutor;
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final Consumer<Update> sink;
+    private final String secretToken;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param port        порт, на котором слушаем
+     * @param path        путь эндпоинта, например /telegram/webhook
+     * @param secretToken если задан — сверяется с заголовком X-Telegram-Bot-Api-Secret-Token
+     * @param sink        куда отдавать разобранные апдейты
+     */
+    public WebhookServer(int port, String path, String secretToken, Consumer<Update> sink) throws IOException {
+        this.sink = sink;
+        this.secretToken = (secretToken == null || secretToken.isBlank()) ? null : secretToken;
+        this.server = HttpServer.create(new InetSocketAddress(port), 256);
+        // обработчик только разбирает JSON и ставит задачу в очередь — хватит пары потоков
+        AtomicInteger counter = new AtomicInteger();
+        this.ioExecutor = Executors.newFixedThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors() / 2),
+                r -> {
+                    Thread t = new Thread(r, "webhook-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        server.setExecutor(ioExecutor);
+        server.createContext(path, this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(1);
+        ioExecutor.shutdown();
+    }
+
+    public long getAcceptedCount() { return accepted.get(); }
+    public long getRejectedCount() { return rejected.get(); }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            if (!"POST".equals(ex.getRequestMethod())) {
+                reply(ex, 405);
+                return;
+            }
+            if (secretToken != null && !secretToken.equals(ex.getRequestHeaders().getFirst(SECRET_HEADER))) {
+                reply(ex, 401);
+                return;
+            }
+
+            Update update;
+            try (InputStream in = ex.getRequestBody()) {
+                update = mapper.readValue(in, Update.class);
+            } catch (IOException e) {
+                System.err.println("Webhook: не удалось разобрать апдейт: " + e.getMessage());
+                reply(ex, 400);
+                return;
+            }
+
+            if (update != null) {
+                sink.accept(update);
+            }
+            accepted.incrementAndGet();
+            reply(ex, 200);
+        }
+    }
+
+    private void reply(HttpExchange ex, int code) throws IOException {
+        if (code != 200) {
+            rejected.incrementAndGet();
+        }
+        ex.sendResponseHeaders(code, -1);
+    }
+}